@@ -1,5 +1,73 @@
 #include <jni.h>
 #include <string>
+#include <vector>
+#include <dlfcn.h>
+#include <android/bitmap.h>
+#include <android/log.h>
+
+#define LOG_TAG "pi_client"
+
+// AImageDecoder (libjnigraphics, API 30+) wraps the platform's SIMD libjpeg-turbo. It is
+// resolved at runtime so the library still loads on older devices, which fall back to
+// BitmapFactory on the Java side.
+namespace {
+    struct AImageDecoder;
+    struct AImageDecoderHeaderInfo;
+
+    const int IMAGE_DECODER_SUCCESS = 0;
+
+    typedef int (*CreateFromBufferFn)(const void*, size_t, AImageDecoder**);
+    typedef void (*DeleteFn)(AImageDecoder*);
+    typedef const AImageDecoderHeaderInfo* (*GetHeaderInfoFn)(const AImageDecoder*);
+    typedef int32_t (*GetDimensionFn)(const AImageDecoderHeaderInfo*);
+    typedef int (*SetFormatFn)(AImageDecoder*, int32_t);
+    typedef int (*DecodeImageFn)(AImageDecoder*, void*, size_t, size_t);
+
+    struct ImageDecoderApi {
+        CreateFromBufferFn createFromBuffer;
+        DeleteFn destroy;
+        GetHeaderInfoFn getHeaderInfo;
+        GetDimensionFn getWidth;
+        GetDimensionFn getHeight;
+        SetFormatFn setAndroidBitmapFormat;
+        DecodeImageFn decodeImage;
+    };
+
+    ImageDecoderApi api;
+    bool apiLoaded = false;
+
+    bool loadImageDecoderApi() {
+        void* lib = dlopen("libjnigraphics.so", RTLD_NOW);
+        if (lib == nullptr) {
+            return false;
+        }
+
+        api.createFromBuffer = (CreateFromBufferFn)dlsym(lib, "AImageDecoder_createFromBuffer");
+        api.destroy = (DeleteFn)dlsym(lib, "AImageDecoder_delete");
+        api.getHeaderInfo = (GetHeaderInfoFn)dlsym(lib, "AImageDecoder_getHeaderInfo");
+        api.getWidth = (GetDimensionFn)dlsym(lib, "AImageDecoderHeaderInfo_getWidth");
+        api.getHeight = (GetDimensionFn)dlsym(lib, "AImageDecoderHeaderInfo_getHeight");
+        api.setAndroidBitmapFormat = (SetFormatFn)dlsym(lib,
+                "AImageDecoder_setAndroidBitmapFormat");
+        api.decodeImage = (DecodeImageFn)dlsym(lib, "AImageDecoder_decodeImage");
+
+        return api.createFromBuffer && api.destroy && api.getHeaderInfo && api.getWidth &&
+                api.getHeight && api.setAndroidBitmapFormat && api.decodeImage;
+    }
+
+    AImageDecoder* createDecoder(const jbyte* data, jint length) {
+        AImageDecoder* decoder = nullptr;
+        if (api.createFromBuffer(data, (size_t)length, &decoder) != IMAGE_DECODER_SUCCESS) {
+            return nullptr;
+        }
+        return decoder;
+    }
+
+    // Compressed bytes copied out of Java arrays, reused by each decode thread. A decoder opened
+    // from an array reads from here, so it must be closed on the thread that opened it before
+    // that thread opens another.
+    thread_local std::vector<jbyte> arrayCopy;
+}
 
 extern "C" JNIEXPORT jstring JNICALL
 Java_com_derelictvesseldev_pi_1client_MainActivity_stringFromJNI(
@@ -7,4 +75,107 @@ Java_com_derelictvesseldev_pi_1client_MainActivity_stringFromJNI(
         jobject /* this */) {
     std::string hello = "Testing";
     return env->NewStringUTF(hello.c_str());
-}
\ No newline at end of file
+}
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_derelictvesseldev_pi_1client_pi_1manager_NativeJpegDecoder_nativeInit(
+        JNIEnv* /* env */,
+        jclass /* clazz */) {
+    if (!apiLoaded) {
+        apiLoaded = loadImageDecoderApi();
+        if (!apiLoaded) {
+            __android_log_print(ANDROID_LOG_INFO, LOG_TAG, "AImageDecoder not available");
+        }
+    }
+    return apiLoaded;
+}
+
+// Copies the range out of the array and opens a decoder on the copy, so no critical region is
+// held while decoding and the GC is never blocked. Returns 0 if the data cannot be parsed.
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_derelictvesseldev_pi_1client_pi_1manager_NativeJpegDecoder_nativeOpen(
+        JNIEnv* env,
+        jclass /* clazz */,
+        jbyteArray data,
+        jint offset,
+        jint length) {
+    jsize size = env->GetArrayLength(data);
+    if (!apiLoaded || offset < 0 || length <= 0 || offset > size - length) {
+        return 0;
+    }
+
+    if (arrayCopy.size() < (size_t)length) {
+        arrayCopy.resize((size_t)length);
+    }
+    env->GetByteArrayRegion(data, offset, length, arrayCopy.data());
+    return (jlong)createDecoder(arrayCopy.data(), length);
+}
+
+// Opens a decoder reading in place from a direct buffer, such as the receive ring. Its memory
+// does not move, but must stay untouched until the decoder is closed.
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_derelictvesseldev_pi_1client_pi_1manager_NativeJpegDecoder_nativeOpenDirect(
+        JNIEnv* env,
+        jclass /* clazz */,
+        jobject buffer,
+        jint offset,
+        jint length) {
+    auto* address = (const jbyte*)env->GetDirectBufferAddress(buffer);
+    jlong capacity = env->GetDirectBufferCapacity(buffer);
+    if (!apiLoaded || address == nullptr || offset < 0 || length <= 0 ||
+            offset > capacity - length) {
+        return 0;
+    }
+    return (jlong)createDecoder(address + offset, length);
+}
+
+// Returns (width << 32 | height) of an open decoder's image.
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_derelictvesseldev_pi_1client_pi_1manager_NativeJpegDecoder_nativeGetImageSize(
+        JNIEnv* /* env */,
+        jclass /* clazz */,
+        jlong handle) {
+    const AImageDecoderHeaderInfo* info = api.getHeaderInfo((AImageDecoder*)handle);
+    return ((jlong)api.getWidth(info) << 32) | (jlong)(uint32_t)api.getHeight(info);
+}
+
+// Decodes straight into the pixels of an RGBA_8888 bitmap of matching size. Returns 0 on success.
+extern "C" JNIEXPORT jint JNICALL
+Java_com_derelictvesseldev_pi_1client_pi_1manager_NativeJpegDecoder_nativeDecode(
+        JNIEnv* env,
+        jclass /* clazz */,
+        jlong handle,
+        jobject bitmap) {
+    auto* decoder = (AImageDecoder*)handle;
+    AndroidBitmapInfo bitmapInfo;
+    if (AndroidBitmap_getInfo(env, bitmap, &bitmapInfo) != ANDROID_BITMAP_RESULT_SUCCESS ||
+            bitmapInfo.format != ANDROID_BITMAP_FORMAT_RGBA_8888) {
+        return -2;
+    }
+
+    const AImageDecoderHeaderInfo* info = api.getHeaderInfo(decoder);
+    if ((uint32_t)api.getWidth(info) != bitmapInfo.width ||
+            (uint32_t)api.getHeight(info) != bitmapInfo.height ||
+            api.setAndroidBitmapFormat(decoder, ANDROID_BITMAP_FORMAT_RGBA_8888) !=
+                    IMAGE_DECODER_SUCCESS) {
+        return -4;
+    }
+
+    void* pixels = nullptr;
+    if (AndroidBitmap_lockPixels(env, bitmap, &pixels) != ANDROID_BITMAP_RESULT_SUCCESS) {
+        return -3;
+    }
+
+    int result = api.decodeImage(decoder, pixels, bitmapInfo.stride,
+            (size_t)bitmapInfo.stride * bitmapInfo.height);
+    AndroidBitmap_unlockPixels(env, bitmap);
+    return result;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_derelictvesseldev_pi_1client_pi_1manager_NativeJpegDecoder_nativeClose(
+        JNIEnv* /* env */,
+        jclass /* clazz */,
+        jlong handle) {
+    api.destroy((AImageDecoder*)handle);
+}
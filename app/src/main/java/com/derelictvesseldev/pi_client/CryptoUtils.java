@@ -1,65 +1,83 @@
 package com.derelictvesseldev.pi_client;
 
+import android.os.Handler;
 import android.security.keystore.KeyGenParameterSpec;
 import android.security.keystore.KeyProperties;
 import android.util.Base64;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyPairGenerator;
 import java.security.KeyStore;
-import java.security.PrivateKey;
-import java.security.PublicKey;
-import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
 
 public class CryptoUtils {
-    KeyStore keyStore;
-    final String keyAlias = "CryptoKey";
+    public interface DecryptCallback {
+        void onDecrypted(String cleartext);
+    }
+
+    private static final String KEY_ALIAS = "CryptoKey";
+    private static final String TRANSFORMATION = "RSA/ECB/PKCS1Padding";
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            r -> new Thread(r, "CryptoUtils"));
+    // Fetched once; a cipher returns to its initialized state after every doFinal.
+    private Cipher encryptCipher;
+    private Cipher decryptCipher;
 
     public CryptoUtils() {
-        try {
-            keyStore = KeyStore.getInstance("AndroidKeyStore");
-            keyStore.load(null);
-
-            if (!keyStore.containsAlias(keyAlias)) {
-                // Key pair not created yet; create it now.
-                KeyPairGenerator generator = KeyPairGenerator.getInstance(
-                        KeyProperties.KEY_ALGORITHM_RSA, "AndroidKeyStore");
-                generator.initialize(new KeyGenParameterSpec.Builder(
-                        keyAlias,
-                        KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
-                        .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_RSA_PKCS1)
-                        .build());
-                generator.generateKeyPair();
+        // Loading the key store, and generating the key pair on first run, is slow enough to
+        // stall the UI, so it starts in the background and is usually done before it is needed.
+        executor.execute(() -> {
+            try {
+                prepare();
+            } catch (Exception e) {
+                e.printStackTrace();
             }
+        });
+    }
+
+    private synchronized void prepare() throws Exception {
+        if (decryptCipher != null) {
+            return;
         }
-        catch(Exception e) {
-            e.printStackTrace();
+
+        KeyStore keyStore = KeyStore.getInstance("AndroidKeyStore");
+        keyStore.load(null);
+
+        if (!keyStore.containsAlias(KEY_ALIAS)) {
+            // Key pair not created yet; create it now.
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(
+                    KeyProperties.KEY_ALGORITHM_RSA, "AndroidKeyStore");
+            generator.initialize(new KeyGenParameterSpec.Builder(
+                    KEY_ALIAS,
+                    KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                    .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_RSA_PKCS1)
+                    .build());
+            generator.generateKeyPair();
         }
-    }
 
-    public String encryptString(String cleartext) {
-        String ciphertext = "";
+        KeyStore.PrivateKeyEntry privateKeyEntry = (KeyStore.PrivateKeyEntry)keyStore
+                .getEntry(KEY_ALIAS, null);
 
-        try {
-            KeyStore.PrivateKeyEntry privateKeyEntry = (KeyStore.PrivateKeyEntry)keyStore
-                    .getEntry(keyAlias, null);
-            PublicKey publicKey = privateKeyEntry.getCertificate().getPublicKey();
+        Cipher encrypt = Cipher.getInstance(TRANSFORMATION);
+        encrypt.init(Cipher.ENCRYPT_MODE, privateKeyEntry.getCertificate().getPublicKey());
+        Cipher decrypt = Cipher.getInstance(TRANSFORMATION);
+        decrypt.init(Cipher.DECRYPT_MODE, privateKeyEntry.getPrivateKey());
 
-            Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
-            cipher.init(Cipher.ENCRYPT_MODE, publicKey);
+        encryptCipher = encrypt;
+        decryptCipher = decrypt;
+    }
 
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            CipherOutputStream cipherOutputStream = new CipherOutputStream(outputStream, cipher);
-            cipherOutputStream.write(cleartext.getBytes(StandardCharsets.UTF_8));
-            cipherOutputStream.close();
+    public synchronized String encryptString(String cleartext) {
+        String ciphertext = "";
 
-            ciphertext = Base64.encodeToString(outputStream.toByteArray(), Base64.DEFAULT);
+        try {
+            prepare();
+            byte[] encrypted = encryptCipher.doFinal(cleartext.getBytes(StandardCharsets.UTF_8));
+            ciphertext = Base64.encodeToString(encrypted, Base64.DEFAULT);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -67,35 +85,31 @@ public class CryptoUtils {
         return ciphertext;
     }
 
-    public String decryptString(String ciphertext) {
+    public synchronized String decryptString(String ciphertext) {
         String cleartext = "";
 
         try {
-            KeyStore.PrivateKeyEntry privateKeyEntry = (KeyStore.PrivateKeyEntry)keyStore
-                    .getEntry(keyAlias, null);
-            PrivateKey privateKey = privateKeyEntry.getPrivateKey();
-
-            Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
-            cipher.init(Cipher.DECRYPT_MODE, privateKey);
-
-            CipherInputStream cipherInputStream = new CipherInputStream(
-                    new ByteArrayInputStream(Base64.decode(ciphertext, Base64.DEFAULT)), cipher);
-            ArrayList<Byte> values = new ArrayList<>();
-            int nextByte;
-            while ((nextByte = cipherInputStream.read()) != -1) {
-                values.add((byte)nextByte);
-            }
-
-            byte[] bytes = new byte[values.size()];
-            for(int i = 0; i < bytes.length; i++) {
-                bytes[i] = values.get(i);
-            }
-
-            cleartext = new String(bytes, 0, bytes.length, StandardCharsets.UTF_8);
+            prepare();
+            byte[] decrypted = decryptCipher.doFinal(Base64.decode(ciphertext, Base64.DEFAULT));
+            cleartext = new String(decrypted, StandardCharsets.UTF_8);
         } catch (Exception e) {
             e.printStackTrace();
         }
 
         return cleartext;
     }
-}
\ No newline at end of file
+
+    // Decrypts on the crypto thread and delivers the result, "" on failure, on resultHandler.
+    public void decryptStringAsync(String ciphertext, Handler resultHandler,
+                                   DecryptCallback callback) {
+        executor.execute(() -> {
+            String cleartext = decryptString(ciphertext);
+            resultHandler.post(() -> callback.onDecrypted(cleartext));
+        });
+    }
+
+    // Pending work still runs; nothing new may be queued afterwards.
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -10,18 +10,22 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.view.LayoutInflater;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.ImageView;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.derelictvesseldev.pi_client.databinding.ActivityMainBinding;
+import com.derelictvesseldev.pi_client.pi_manager.ConnectionState;
 import com.derelictvesseldev.pi_client.pi_manager.PiManager;
 import com.derelictvesseldev.pi_client.pi_manager.Result;
+import com.derelictvesseldev.pi_client.pi_manager.StreamEncoding;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.File;
+import java.io.IOException;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -34,7 +38,6 @@ public class MainActivity extends AppCompatActivity {
         void onConnectionParam(ConnectionParams connectionParams);
     }
 
-    private final ExecutorService executorService = Executors.newFixedThreadPool(4);
     Handler mainThreadHandler = HandlerCompat.createAsync(Looper.getMainLooper());
     private PiManager piManager;
     private final CryptoUtils cryptoUtils = new CryptoUtils();
@@ -49,10 +52,9 @@ public class MainActivity extends AppCompatActivity {
         setContentView(binding.getRoot());
 
         final Button buttonConnect = findViewById(R.id.connect_button);
-        final ImageView imageView = findViewById(R.id.imageView);
+        final TileView tileView = findViewById(R.id.tileView);
 
-        piManager = new PiManager(getApplicationContext(), executorService, mainThreadHandler,
-                (result) -> {
+        piManager = new PiManager(getApplicationContext(), mainThreadHandler, (result) -> {
             if (result instanceof Result.Success) {
                 buttonConnect.setText(R.string.disconnect_button);
                 isConnected = true;
@@ -63,13 +65,21 @@ public class MainActivity extends AppCompatActivity {
                         .show();
             }
 
-        }, imageView::setImageBitmap);
+        }, tileView);
+
+        piManager.setAdaptiveRateEnabled(true);
+        piManager.setConnectionStateListener(state -> {
+            if (state == ConnectionState.RECONNECTING) {
+                Toast.makeText(getApplicationContext(), R.string.reconnecting, Toast.LENGTH_SHORT)
+                        .show();
+            }
+        });
 
         buttonConnect.setOnClickListener(l -> {
             if (!isConnected) {
                 getConnectionParams(connectionParams -> {
                     if (connectionParams.isValid()) {
-                        piManager.connect(connectionParams.host, connectionParams.password);
+                        piManager.connect(connectionParams.host, this::decryptStoredPassword);
                     }
                 });
             }
@@ -86,7 +96,111 @@ public class MainActivity extends AppCompatActivity {
         });
 
         final Button buttonMode = findViewById(R.id.mode_button);
-        buttonMode.setOnClickListener(l -> piManager.sendCommand("mode"));
+        buttonMode.setOnClickListener(l -> piManager.sendCommand("mode", true));
+
+        // H.264 renders straight to the surface view, which covers the tile view while in use.
+        final SurfaceView videoSurface = findViewById(R.id.video_surface);
+        videoSurface.getHolder().addCallback(new SurfaceHolder.Callback() {
+            @Override
+            public void surfaceCreated(SurfaceHolder holder) {
+                piManager.setVideoSurface(holder.getSurface());
+            }
+
+            @Override
+            public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            }
+
+            @Override
+            public void surfaceDestroyed(SurfaceHolder holder) {
+                piManager.setVideoSurface(null);
+            }
+        });
+
+        final Button buttonStream = findViewById(R.id.stream_button);
+        buttonStream.setOnClickListener(l -> {
+            if (piManager.getStreamEncoding() == StreamEncoding.JPEG) {
+                piManager.setStreamEncoding(StreamEncoding.H264);
+                videoSurface.setVisibility(View.VISIBLE);
+                tileView.setVisibility(View.INVISIBLE);
+                buttonStream.setText(R.string.tiles_button);
+            }
+            else {
+                piManager.setStreamEncoding(StreamEncoding.JPEG);
+                videoSurface.setVisibility(View.GONE);
+                tileView.setVisibility(View.VISIBLE);
+                buttonStream.setText(R.string.video_button);
+            }
+        });
+
+        // Tap to record the live stream; long-press to replay the last recording while
+        // disconnected.
+        final File recordingFile = new File(getFilesDir(), "monitor.pirec");
+        final Button buttonRecord = findViewById(R.id.record_button);
+        buttonRecord.setOnClickListener(l -> {
+            if (piManager.isRecording()) {
+                piManager.stopRecording();
+                buttonRecord.setText(R.string.record_button);
+                return;
+            }
+
+            try {
+                piManager.startRecording(recordingFile);
+                buttonRecord.setText(R.string.stop_record_button);
+            } catch (IOException e) {
+                Toast.makeText(getApplicationContext(), e.getMessage(), Toast.LENGTH_SHORT).show();
+            }
+        });
+
+        buttonRecord.setOnLongClickListener(v -> {
+            if (piManager.isReplaying()) {
+                piManager.stopReplay();
+            }
+            else if (!isConnected && recordingFile.exists()) {
+                try {
+                    piManager.startReplay(recordingFile, 0, 1.0);
+                } catch (IOException e) {
+                    Toast.makeText(getApplicationContext(), e.getMessage(), Toast.LENGTH_SHORT)
+                            .show();
+                }
+            }
+            return true;
+        });
+
+        final TextView statsText = findViewById(R.id.stats_text);
+        final Button buttonStats = findViewById(R.id.stats_button);
+        buttonStats.setOnClickListener(l -> {
+            if (statsText.getVisibility() == View.VISIBLE) {
+                piManager.setStatsListener(null);
+                statsText.setVisibility(View.GONE);
+            }
+            else {
+                statsText.setText("");
+                statsText.setVisibility(View.VISIBLE);
+                piManager.setStatsListener(stats -> statsText.setText(stats + "\n" +
+                        piManager.getConnectTimings()));
+            }
+        });
+    }
+
+    // Nothing is received or decoded while the activity is hidden; coming back reuses the
+    // connection, so the stream returns without another SSH login.
+    @Override
+    protected void onStart() {
+        super.onStart();
+        piManager.resume();
+    }
+
+    @Override
+    protected void onStop() {
+        piManager.pause();
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        piManager.shutdown();
+        cryptoUtils.shutdown();
+        super.onDestroy();
     }
 
     private void getConnectionParams(ConnectionParamCallback callback) {
@@ -100,10 +214,26 @@ public class MainActivity extends AppCompatActivity {
         }
 
         if (sharedPref.contains("password")) {
+            // Decrypting goes through the key store, which is too slow for the main thread.
             String ciphertext = sharedPref.getString("password", "");
-            connectionParams.password = cryptoUtils.decryptString(ciphertext);
+            cryptoUtils.decryptStringAsync(ciphertext, mainThreadHandler, password -> {
+                if (isDestroyed()) {
+                    return;
+                }
+
+                connectionParams.password = password;
+                confirmConnectionParams(connectionParams, sharedPref, callback);
+            });
+        }
+        else {
+            confirmConnectionParams(connectionParams, sharedPref, callback);
         }
+    }
 
+    // Asks for whatever is missing before handing the parameters on.
+    private void confirmConnectionParams(ConnectionParams connectionParams,
+                                         SharedPreferences sharedPref,
+                                         ConnectionParamCallback callback) {
         if (connectionParams.isValid()) {
             callback.onConnectionParam(connectionParams);
         }
@@ -143,6 +273,15 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    // Called on PiManager's control thread for every token upload, so the password is only in
+    // the clear while one is under way.
+    private String decryptStoredPassword() {
+        SharedPreferences sharedPref = this.getSharedPreferences(
+                getString(R.string.preference_file_key), Context.MODE_PRIVATE);
+        String ciphertext = sharedPref.getString("password", null);
+        return ciphertext != null ? cryptoUtils.decryptString(ciphertext) : null;
+    }
+
     private void resetConnectionParams() {
         SharedPreferences sharedPref = this.getSharedPreferences(
                 getString(R.string.preference_file_key), Context.MODE_PRIVATE);
@@ -0,0 +1,85 @@
+package com.derelictvesseldev.pi_client;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.derelictvesseldev.pi_client.pi_manager.Frame;
+import com.derelictvesseldev.pi_client.pi_manager.TileFrameCallback;
+
+// Draws monitor tiles in the frame's grid, row by row, each stretched to fill its cell. Legacy
+// frames are a single column, so their tiles stack top to bottom.
+public class TileView extends View implements TileFrameCallback {
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect destRect = new Rect();
+    private Frame frame;
+
+    public TileView(Context context) {
+        super(context);
+    }
+
+    public TileView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public TileView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+    }
+
+    @Override
+    public void onFrame(Frame frame) {
+        // The previous frame is still valid here, so unchanged tiles can be detected and the
+        // redraw skipped; the new frame is kept either way, as the old one is about to be reused.
+        boolean unchanged = frame.hasSameTiles(this.frame);
+        this.frame = frame;
+        if (!unchanged) {
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (frame == null) {
+            return;
+        }
+
+        // Subscribed tiles share the grid; unsubscribed ones take no space.
+        int tileCount = frame.getTileCount();
+        int slots = 0;
+        for (int i = 0; i < tileCount; i++) {
+            if (frame.isTileSubscribed(i)) {
+                slots++;
+            }
+        }
+
+        if (slots == 0) {
+            return;
+        }
+
+        int columns = Math.min(frame.getGridColumns(), slots);
+        int rows = (slots + columns - 1) / columns;
+        int width = getWidth();
+        int height = getHeight();
+        int slot = 0;
+        for (int i = 0; i < tileCount; i++) {
+            if (!frame.isTileSubscribed(i)) {
+                continue;
+            }
+
+            Bitmap tile = frame.getTile(i);
+            if (tile != null) {
+                int column = slot % columns;
+                int row = slot / columns;
+                destRect.set(width * column / columns, height * row / rows,
+                        width * (column + 1) / columns, height * (row + 1) / rows);
+                canvas.drawBitmap(tile, null, destRect, paint);
+            }
+            slot++;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+public final class AllocationStats {
+    public final long frameCount;
+    public final long bufferAllocations;
+    public final long tileBitmapAllocations;
+    public final long compositeBitmapAllocations;
+
+    AllocationStats(long frameCount, long bufferAllocations, long tileBitmapAllocations,
+                    long compositeBitmapAllocations) {
+        this.frameCount = frameCount;
+        this.bufferAllocations = bufferAllocations;
+        this.tileBitmapAllocations = tileBitmapAllocations;
+        this.compositeBitmapAllocations = compositeBitmapAllocations;
+    }
+}
@@ -0,0 +1,27 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import java.util.Random;
+
+// Exponential backoff with full jitter: each delay is uniform in [0, min(max, base * 2^n)).
+class Backoff {
+    private final long baseMillis;
+    private final long maxMillis;
+    private final Random random;
+    private int attempt;
+
+    Backoff(long baseMillis, long maxMillis, Random random) {
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+        this.random = random;
+    }
+
+    long nextDelayMillis() {
+        long cap = Math.min(maxMillis, baseMillis << Math.min(attempt, 20));
+        attempt++;
+        return (long)(random.nextDouble() * cap);
+    }
+
+    void reset() {
+        attempt = 0;
+    }
+}
@@ -0,0 +1,109 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+class BitmapPool {
+    private final ArrayDeque<Bitmap> freeBitmaps = new ArrayDeque<>();
+    // Holders beyond the first, for bitmaps shared between frames; untracked means one holder.
+    private final IdentityHashMap<Bitmap, Integer> extraHolders = new IdentityHashMap<>();
+    private final int maxPooled;
+    private long allocationCount;
+
+    BitmapPool(int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    // Decode into a recycled bitmap when one is available; options must be owned by the caller's
+    // thread since inBitmap is rewritten on every call.
+    Bitmap decode(byte[] data, int offset, int length, BitmapFactory.Options options) {
+        Bitmap reusable = poll();
+        options.inMutable = true;
+        options.inBitmap = reusable;
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(data, offset, length, options);
+        } catch (IllegalArgumentException e) {
+            // Pooled bitmap too small for this image; fall back to a fresh allocation.
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(data, offset, length, options);
+        }
+
+        if (reusable != null && bitmap != reusable) {
+            release(reusable);
+        }
+        if (bitmap != null && bitmap != reusable) {
+            countAllocation();
+        }
+
+        options.inBitmap = null;
+        return bitmap;
+    }
+
+    Bitmap obtain(int width, int height) {
+        synchronized (this) {
+            Iterator<Bitmap> it = freeBitmaps.iterator();
+            while (it.hasNext()) {
+                Bitmap bitmap = it.next();
+                if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                    it.remove();
+                    return bitmap;
+                }
+            }
+            allocationCount++;
+        }
+
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    // Another holder keeps bitmap; it goes back to the pool only once every holder released it.
+    synchronized void retain(Bitmap bitmap) {
+        if (bitmap != null) {
+            Integer holders = extraHolders.get(bitmap);
+            extraHolders.put(bitmap, holders == null ? 1 : holders + 1);
+        }
+    }
+
+    void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+
+        synchronized (this) {
+            Integer holders = extraHolders.get(bitmap);
+            if (holders != null) {
+                if (holders == 1) {
+                    extraHolders.remove(bitmap);
+                }
+                else {
+                    extraHolders.put(bitmap, holders - 1);
+                }
+                return;
+            }
+
+            if (freeBitmaps.size() < maxPooled) {
+                freeBitmaps.addFirst(bitmap);
+                return;
+            }
+        }
+
+        bitmap.recycle();
+    }
+
+    synchronized long getAllocationCount() {
+        return allocationCount;
+    }
+
+    private synchronized Bitmap poll() {
+        return freeBitmaps.pollFirst();
+    }
+
+    private synchronized void countAllocation() {
+        allocationCount++;
+    }
+}
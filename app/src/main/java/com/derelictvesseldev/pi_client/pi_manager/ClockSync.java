@@ -0,0 +1,92 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+// NTP-style offset between System.nanoTime() here and the server's capture clock, the one frame
+// header timestamps use. The client sends "time <t0>" with t0 in client microseconds; the server
+// answers "time <t0> <t1> <t2>" with its receive and send times in server microseconds, and the
+// reply arrives at t3:
+//   offset = ((t1 - t0) + (t2 - t3)) / 2, round trip = (t3 - t0) - (t2 - t1)
+// Of the last few samples the one with the shortest round trip wins, as queueing delay is what
+// makes an estimate wrong.
+class ClockSync {
+    static final String COMMAND = "time";
+    private static final int SAMPLES = 8;
+
+    private final long[] offsets = new long[SAMPLES];
+    private final long[] roundTrips = new long[SAMPLES];
+    private int sampleCount;
+    private int nextSample;
+    private volatile long offsetMicros;
+    private volatile long roundTripMicros = -1;
+
+    static String request(long nowNanos) {
+        return COMMAND + " " + nowNanos / 1000;
+    }
+
+    // Returns false for anything but a well-formed time reply.
+    synchronized boolean onReply(String reply, long receivedNanos) {
+        String[] parts = reply.trim().split(" +");
+        if (parts.length != 4 || !parts[0].equals(COMMAND)) {
+            return false;
+        }
+
+        long t0;
+        long t1;
+        long t2;
+        try {
+            t0 = Long.parseLong(parts[1]);
+            t1 = Long.parseLong(parts[2]);
+            t2 = Long.parseLong(parts[3]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+
+        long t3 = receivedNanos / 1000;
+        long roundTrip = (t3 - t0) - (t2 - t1);
+        if (t3 < t0 || roundTrip < 0) {
+            return false;
+        }
+
+        offsets[nextSample] = ((t1 - t0) + (t2 - t3)) / 2;
+        roundTrips[nextSample] = roundTrip;
+        nextSample = (nextSample + 1) % SAMPLES;
+        sampleCount = Math.min(sampleCount + 1, SAMPLES);
+
+        int best = 0;
+        for (int i = 1; i < sampleCount; i++) {
+            if (roundTrips[i] < roundTrips[best]) {
+                best = i;
+            }
+        }
+        offsetMicros = offsets[best];
+        roundTripMicros = roundTrips[best];
+        return true;
+    }
+
+    boolean isSynchronized() {
+        return roundTripMicros >= 0;
+    }
+
+    // Server clock minus client clock.
+    long getOffsetMicros() {
+        return offsetMicros;
+    }
+
+    // Round trip of the sample in use, which bounds the offset's error to half of it; -1 before
+    // the first reply.
+    long getRoundTripMicros() {
+        return roundTripMicros;
+    }
+
+    // A server timestamp as System.nanoTime() on this device.
+    long toClientNanos(long serverMicros) {
+        return (serverMicros - offsetMicros) * 1000;
+    }
+
+    // A new connection may be to a restarted server with a different clock.
+    synchronized void reset() {
+        sampleCount = 0;
+        nextSample = 0;
+        offsetMicros = 0;
+        roundTripMicros = -1;
+    }
+}
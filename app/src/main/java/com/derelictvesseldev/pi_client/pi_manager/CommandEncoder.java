@@ -0,0 +1,64 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Frames commands as a little-endian 32-bit length followed by UTF-8 text, appending into a
+// reusable buffer so a burst of commands goes out in one write.
+class CommandEncoder {
+    static final int LENGTH_SIZE = 4;
+
+    private byte[] buffer;
+    private int length;
+
+    CommandEncoder(int initialCapacity) {
+        buffer = new byte[initialCapacity];
+    }
+
+    void reset() {
+        length = 0;
+    }
+
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    int getLength() {
+        return length;
+    }
+
+    void append(String command) {
+        int start = length;
+        ensureCapacity(LENGTH_SIZE + command.length());
+        length += LENGTH_SIZE;
+
+        // Commands are ASCII in practice; only fall back to a full encode for anything else.
+        for (int i = 0; i < command.length(); i++) {
+            char c = command.charAt(i);
+            if (c >= 0x80) {
+                length = start + LENGTH_SIZE;
+                byte[] encoded = command.getBytes(StandardCharsets.UTF_8);
+                ensureCapacity(encoded.length);
+                System.arraycopy(encoded, 0, buffer, length, encoded.length);
+                length += encoded.length;
+                break;
+            }
+            buffer[length++] = (byte)c;
+        }
+
+        writeLength(start, length - start - LENGTH_SIZE);
+    }
+
+    private void writeLength(int offset, int value) {
+        buffer[offset] = (byte)value;
+        buffer[offset + 1] = (byte)(value >> 8);
+        buffer[offset + 2] = (byte)(value >> 16);
+        buffer[offset + 3] = (byte)(value >> 24);
+    }
+
+    private void ensureCapacity(int additional) {
+        if (length + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + additional));
+        }
+    }
+}
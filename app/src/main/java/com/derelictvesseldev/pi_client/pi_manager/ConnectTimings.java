@@ -0,0 +1,37 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import java.util.Locale;
+
+public final class ConnectTimings {
+    // All values in milliseconds; -1 if the phase has not completed (yet).
+    public final double sshSessionMillis;
+    public final double tokenUploadMillis;
+    public final double commandConnectMillis;
+    public final double monitorConnectMillis;
+    public final double firstFrameMillis;
+    // From the last PiManager.resume() to the first frame displayed after it.
+    public final double resumeFirstFrameMillis;
+    public final boolean sessionReused;
+
+    ConnectTimings(double sshSessionMillis, double tokenUploadMillis, double commandConnectMillis,
+                   double monitorConnectMillis, double firstFrameMillis,
+                   double resumeFirstFrameMillis, boolean sessionReused) {
+        this.sshSessionMillis = sshSessionMillis;
+        this.tokenUploadMillis = tokenUploadMillis;
+        this.commandConnectMillis = commandConnectMillis;
+        this.monitorConnectMillis = monitorConnectMillis;
+        this.firstFrameMillis = firstFrameMillis;
+        this.resumeFirstFrameMillis = resumeFirstFrameMillis;
+        this.sessionReused = sessionReused;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "connect: ssh %.0f%s, token %.0f, command %.0f, monitor %.0f, first frame %.0f, " +
+                        "resume %.0f ms",
+                sshSessionMillis, sessionReused ? " (reused)" : "", tokenUploadMillis,
+                commandConnectMillis, monitorConnectMillis, firstFrameMillis,
+                resumeFirstFrameMillis);
+    }
+}
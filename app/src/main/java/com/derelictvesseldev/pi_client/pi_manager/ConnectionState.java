@@ -0,0 +1,9 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+public enum ConnectionState {
+    DISCONNECTED,
+    CONNECTING,
+    CONNECTED,
+    // Stream lost; retrying in the background without user action.
+    RECONNECTING
+}
@@ -0,0 +1,118 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import android.os.Handler;
+
+import java.util.Random;
+
+// Drives reconnects after the stream is lost. All methods except getState() must run on the
+// handler's thread.
+class ConnectionSupervisor {
+    interface Connector {
+        // Tear down and reopen both channels. refreshToken forces a new token over SSH instead
+        // of presenting the current one again.
+        void attemptReconnect(boolean refreshToken);
+    }
+
+    private static final long BACKOFF_BASE_MS = 250;
+    private static final long BACKOFF_MAX_MS = 10000;
+    // How long a reconnect attempt may take to deliver its first frame.
+    private static final long RESUME_TIMEOUT_MS = 4000;
+
+    private final Handler handler;
+    private final Connector connector;
+    private final Backoff backoff = new Backoff(BACKOFF_BASE_MS, BACKOFF_MAX_MS, new Random());
+    private final Runnable attemptRunnable = this::attempt;
+    private final Runnable resumeTimeoutRunnable = this::onConnectionLost;
+    private ConnectionStateListener listener;
+    private volatile ConnectionState state = ConnectionState.DISCONNECTED;
+    private int failedAttempts;
+    // The monitor stream connects alongside the command socket, so it can be lost before the
+    // connect completes; the reconnect starts once it has.
+    private boolean lostWhileConnecting;
+
+    ConnectionSupervisor(Handler handler, Connector connector) {
+        this.handler = handler;
+        this.connector = connector;
+    }
+
+    void setListener(ConnectionStateListener listener) {
+        this.listener = listener;
+    }
+
+    ConnectionState getState() {
+        return state;
+    }
+
+    void onConnecting() {
+        cancelTimers();
+        lostWhileConnecting = false;
+        setState(ConnectionState.CONNECTING);
+    }
+
+    void onConnected() {
+        cancelTimers();
+        failedAttempts = 0;
+        backoff.reset();
+        if (lostWhileConnecting) {
+            lostWhileConnecting = false;
+            reconnect();
+            return;
+        }
+        setState(ConnectionState.CONNECTED);
+    }
+
+    // A frame arrived; completes a pending reconnect.
+    void onFrameReceived() {
+        if (state == ConnectionState.RECONNECTING) {
+            onConnected();
+        }
+    }
+
+    void onConnectionLost() {
+        if (state == ConnectionState.CONNECTING) {
+            lostWhileConnecting = true;
+            return;
+        }
+        if (state != ConnectionState.CONNECTED && state != ConnectionState.RECONNECTING) {
+            return;
+        }
+
+        reconnect();
+    }
+
+    void stop() {
+        cancelTimers();
+        lostWhileConnecting = false;
+        setState(ConnectionState.DISCONNECTED);
+    }
+
+    private void reconnect() {
+        cancelTimers();
+        setState(ConnectionState.RECONNECTING);
+        handler.postDelayed(attemptRunnable, backoff.nextDelayMillis());
+    }
+
+    private void attempt() {
+        // Present the current token first; if that did not bring the stream back, the server
+        // may have dropped it, so fetch a fresh one from then on.
+        connector.attemptReconnect(failedAttempts > 0);
+        failedAttempts++;
+        handler.postDelayed(resumeTimeoutRunnable, RESUME_TIMEOUT_MS);
+    }
+
+    private void cancelTimers() {
+        handler.removeCallbacks(attemptRunnable);
+        handler.removeCallbacks(resumeTimeoutRunnable);
+    }
+
+    private void setState(ConnectionState newState) {
+        if (state == newState) {
+            return;
+        }
+
+        state = newState;
+        if (listener != null) {
+            listener.onStateChanged(newState);
+        }
+    }
+}
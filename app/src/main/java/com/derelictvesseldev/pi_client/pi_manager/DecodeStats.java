@@ -0,0 +1,18 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+public final class DecodeStats {
+    public final long nativeTiles;
+    public final long bitmapFactoryTiles;
+    public final long decodeNanos;
+
+    DecodeStats(long nativeTiles, long bitmapFactoryTiles, long decodeNanos) {
+        this.nativeTiles = nativeTiles;
+        this.bitmapFactoryTiles = bitmapFactoryTiles;
+        this.decodeNanos = decodeNanos;
+    }
+
+    public double getAverageTileMillis() {
+        long tiles = nativeTiles + bitmapFactoryTiles;
+        return tiles > 0 ? decodeNanos / 1e6 / tiles : 0;
+    }
+}
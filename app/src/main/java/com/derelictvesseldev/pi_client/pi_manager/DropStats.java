@@ -0,0 +1,28 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+public final class DropStats {
+    // Gaps in the server's frame sequence numbers; always 0 for legacy frames.
+    public final long lostFrames;
+    public final long receivedFrames;
+    public final long droppedBeforeDecode;
+    // Frames with an encoding or layout this client cannot decode.
+    public final long unsupportedFrames;
+    public final long decodedFrames;
+    public final long droppedBeforeDisplay;
+    public final long displayedFrames;
+    // Hidden for being older than the frame deadline, before or after decoding.
+    public final long lateFrames;
+
+    DropStats(long lostFrames, long receivedFrames, long droppedBeforeDecode,
+              long unsupportedFrames, long decodedFrames, long droppedBeforeDisplay,
+              long displayedFrames, long lateFrames) {
+        this.lostFrames = lostFrames;
+        this.receivedFrames = receivedFrames;
+        this.droppedBeforeDecode = droppedBeforeDecode;
+        this.unsupportedFrames = unsupportedFrames;
+        this.decodedFrames = decodedFrames;
+        this.droppedBeforeDisplay = droppedBeforeDisplay;
+        this.displayedFrames = displayedFrames;
+        this.lateFrames = lateFrames;
+    }
+}
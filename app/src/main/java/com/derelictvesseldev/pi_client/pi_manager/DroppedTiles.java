@@ -0,0 +1,69 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+// Newest JPEG bytes of each tile from frames dropped before decode. A server only marks a tile
+// unchanged relative to the last frame it sent, so without this a tile that changed in a frame
+// the client dropped would stay stale for as long as the following frames mark it unchanged.
+// Written on the receive thread, read on the decode thread.
+class DroppedTiles {
+    private final FrameParser frameParser;
+    private final byte[][] tileData;
+    private final int[] tileLengths;
+    // FrameBuffer.arrival of the frame each tile was salvaged from.
+    private final long[] tileArrivals;
+    private int pendingMask;
+
+    DroppedTiles(int maxTiles) {
+        frameParser = new FrameParser(maxTiles);
+        tileData = new byte[maxTiles][];
+        tileLengths = new int[maxTiles];
+        tileArrivals = new long[maxTiles];
+    }
+
+    // Keeps every non-empty tile of a frame that will never be decoded.
+    synchronized void salvage(FrameBuffer frame) {
+        int parsed = frameParser.parse(frame);
+        for (int i = 0; i < parsed; i++) {
+            int length = frameParser.tileLengths[i];
+            if (length == 0) {
+                continue;
+            }
+
+            if (tileData[i] == null || tileData[i].length < length) {
+                tileData[i] = new byte[length];
+            }
+            frame.copyTo(frameParser.tileOffsets[i], tileData[i], 0, length);
+            tileLengths[i] = length;
+            tileArrivals[i] = frame.arrival;
+            pendingMask |= 1 << i;
+        }
+    }
+
+    // A frame that arrived at arrival carried its own data for this tile, so anything salvaged
+    // from before it is stale. The receive thread may already have salvaged the tile from a
+    // later frame dropped while this one was decoding; that copy is kept.
+    synchronized void discardOlderThan(int tile, long arrival) {
+        if (tileArrivals[tile] < arrival) {
+            pendingMask &= ~(1 << tile);
+        }
+    }
+
+    synchronized boolean has(int tile) {
+        return (pendingMask & (1 << tile)) != 0;
+    }
+
+    // Copies the salvaged tile into buffer, growing it if needed, and forgets it.
+    synchronized FrameBuffer take(int tile, FrameBuffer buffer) {
+        int length = tileLengths[tile];
+        if (buffer.data.length < length) {
+            buffer.setData(new byte[length]);
+        }
+        System.arraycopy(tileData[tile], 0, buffer.data, 0, length);
+        buffer.length = length;
+        pendingMask &= ~(1 << tile);
+        return buffer;
+    }
+
+    synchronized void clear() {
+        pendingMask = 0;
+    }
+}
@@ -0,0 +1,90 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+// A fixed set of worker threads shared by several streams. Each stream submits through its own
+// lane, and workers take one task from each lane with work in turn, so a stream with many tiles
+// per frame cannot starve the others.
+class FairExecutor {
+    class Lane implements Executor {
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private boolean ready;
+
+        @Override
+        public void execute(Runnable task) {
+            synchronized (FairExecutor.this) {
+                if (shutdown) {
+                    throw new IllegalStateException("Executor is shut down");
+                }
+
+                tasks.addLast(task);
+                if (!ready) {
+                    ready = true;
+                    readyLanes.addLast(this);
+                }
+                FairExecutor.this.notify();
+            }
+        }
+    }
+
+    private final ArrayDeque<Lane> readyLanes = new ArrayDeque<>();
+    private final Thread[] workers;
+    private boolean shutdown;
+
+    FairExecutor(int workerCount, ThreadFactory threadFactory) {
+        workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = threadFactory.newThread(this::work);
+            workers[i].start();
+        }
+    }
+
+    Lane newLane() {
+        return new Lane();
+    }
+
+    // Tasks not yet started are abandoned; workers exit once their current task finishes.
+    void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            readyLanes.clear();
+            notifyAll();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Runnable task;
+            synchronized (this) {
+                while (!shutdown && readyLanes.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (shutdown) {
+                    return;
+                }
+
+                // The lane goes to the back of the line while it still has work.
+                Lane lane = readyLanes.pollFirst();
+                task = lane.tasks.pollFirst();
+                if (lane.tasks.isEmpty()) {
+                    lane.ready = false;
+                }
+                else {
+                    readyLanes.addLast(lane);
+                }
+            }
+
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
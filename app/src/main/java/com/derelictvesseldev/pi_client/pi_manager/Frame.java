@@ -0,0 +1,91 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import android.graphics.Bitmap;
+
+// A decoded monitor frame. Frames are pooled and reused by the pipeline, so callbacks must not
+// hold on to one after the next is delivered.
+public final class Frame {
+    final Bitmap[] tiles;
+    int tileCount;
+    int gridColumns = 1;
+    long sequence = FrameParser.NO_SEQUENCE;
+    long timestampMicros;
+    // Only set when the pipeline delivers composites instead of tiles.
+    Bitmap composite;
+    long headerTime;
+    long postedTime;
+    long captureAgeNanos = -1;
+    int tileMask = PiManager.ALL_TILES;
+    // Per-tile TileCache version; equal versions mean identical pixels.
+    final long[] tileVersions;
+
+    Frame(int maxTiles) {
+        tiles = new Bitmap[maxTiles];
+        tileVersions = new long[maxTiles];
+    }
+
+    public int getTileCount() {
+        return tileCount;
+    }
+
+    public Bitmap getTile(int index) {
+        return tiles[index];
+    }
+
+    // Unsubscribed tiles are never decoded and always null.
+    public boolean isTileSubscribed(int index) {
+        return (tileMask & (1 << index)) != 0;
+    }
+
+    // Tiles are laid out row by row in this many columns; legacy frames are a single column.
+    public int getGridColumns() {
+        return gridColumns;
+    }
+
+    // Server frame sequence number, or -1 for legacy frames without a header.
+    public long getSequence() {
+        return sequence;
+    }
+
+    // Server capture time in microseconds on the server's clock, or 0 if not sent.
+    public long getTimestampMicros() {
+        return timestampMicros;
+    }
+
+    // Time from server capture to delivery, via the synchronized clock; -1 until the clocks are
+    // synchronized or for frames without a capture timestamp.
+    public long getCaptureAgeNanos() {
+        return captureAgeNanos;
+    }
+
+    // Same layout and the very same tile bitmaps as other, as when the pipeline reused every tile
+    // instead of decoding it again; nothing would change on screen. A bitmap is never reused for
+    // new content while a frame still holds it, so identity is enough.
+    public boolean hasSameTiles(Frame other) {
+        if (other == null || other.tileCount != tileCount || other.gridColumns != gridColumns ||
+                other.tileMask != tileMask) {
+            return false;
+        }
+
+        for (int i = 0; i < tileCount; i++) {
+            if (other.tiles[i] != tiles[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Every subscribed tile decoded, and at least one of them present.
+    boolean isComplete() {
+        boolean any = false;
+        for (int i = 0; i < tileCount; i++) {
+            if (tiles[i] != null) {
+                any = true;
+            }
+            else if (isTileSubscribed(i)) {
+                return false;
+            }
+        }
+        return any;
+    }
+}
@@ -0,0 +1,53 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+class FrameBuffer {
+    // Heap frames hold their payload in data from index 0. Frames received into a FrameRing have
+    // no data; their payload is read in place from the ring, at offset in memory.
+    byte[] data;
+    // Little-endian view of the payload's storage. It belongs to whichever thread owns the frame,
+    // so that thread may move its position and limit.
+    ByteBuffer memory;
+    int offset;
+    int length;
+    // System.nanoTime() when the length prefix and the last payload byte arrived.
+    long headerTime;
+    long payloadTime;
+    // Position in the order frames reached FramePipeline, counting from 1.
+    long arrival;
+    // Set for frames living in a ring; releasing them hands their space back to it.
+    final FrameRing ring;
+    boolean released;
+    int ringLap;
+
+    FrameBuffer(int capacity) {
+        ring = null;
+        setData(new byte[capacity]);
+    }
+
+    FrameBuffer(FrameRing ring, ByteBuffer memory) {
+        this.ring = ring;
+        this.memory = memory.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    void setData(byte[] data) {
+        this.data = data;
+        memory = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        offset = 0;
+    }
+
+    // Copies count payload bytes starting at index; the way out of a ring for code that needs
+    // the bytes on the heap.
+    void copyTo(int index, byte[] destination, int destinationOffset, int count) {
+        if (data != null) {
+            System.arraycopy(data, index, destination, destinationOffset, count);
+            return;
+        }
+
+        memory.limit(offset + index + count).position(offset + index);
+        memory.get(destination, destinationOffset, count);
+        memory.clear();
+    }
+}
@@ -0,0 +1,56 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import java.util.ArrayDeque;
+
+class FrameBufferPool {
+    private static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+    private final ArrayDeque<FrameBuffer> freeBuffers = new ArrayDeque<>();
+    private final int maxPooled;
+    private long allocationCount;
+
+    FrameBufferPool(int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    synchronized FrameBuffer acquire(int minSize) {
+        FrameBuffer buffer = freeBuffers.pollFirst();
+        if (buffer != null && buffer.data.length >= minSize) {
+            buffer.length = 0;
+            return buffer;
+        }
+
+        // Grow geometrically so a slowly increasing frame size settles after a few frames.
+        int size = Math.max(MIN_BUFFER_SIZE, buffer != null ? buffer.data.length : 0);
+        while (size < minSize) {
+            size += size >> 1;
+        }
+
+        allocationCount++;
+        if (buffer == null) {
+            return new FrameBuffer(size);
+        }
+
+        buffer.setData(new byte[size]);
+        buffer.length = 0;
+        return buffer;
+    }
+
+    // Frames received into a FrameRing go back to their ring.
+    void release(FrameBuffer buffer) {
+        if (buffer != null && buffer.ring != null) {
+            buffer.ring.release(buffer);
+            return;
+        }
+
+        synchronized (this) {
+            if (buffer != null && freeBuffers.size() < maxPooled) {
+                freeBuffers.addFirst(buffer);
+            }
+        }
+    }
+
+    synchronized long getAllocationCount() {
+        return allocationCount;
+    }
+}
@@ -0,0 +1,81 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+class FrameDecoder {
+    interface FrameListener {
+        // Ownership of frame passes to the listener, which must return it to the pool.
+        void onFrame(FrameBuffer frame);
+    }
+
+    static final int HEADER_SIZE = 4;
+    static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private enum State {
+        HEADER,
+        PAYLOAD
+    }
+
+    private final FrameBufferPool frameBufferPool;
+    private final FrameListener frameListener;
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private State state = State.HEADER;
+    private FrameBuffer payload;
+    private int payloadLength;
+
+    FrameDecoder(FrameBufferPool frameBufferPool, FrameListener frameListener) {
+        this.frameBufferPool = frameBufferPool;
+        this.frameListener = frameListener;
+    }
+
+    // Consume everything remaining in buffer; headers and payloads may be split at any byte.
+    void decode(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (state == State.HEADER) {
+                while (buffer.hasRemaining() && header.hasRemaining()) {
+                    header.put(buffer.get());
+                }
+
+                if (header.hasRemaining()) {
+                    return;
+                }
+
+                int frameSize = header.getInt(0);
+                header.clear();
+                if (frameSize < 0 || frameSize > MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid frame size: " + frameSize);
+                }
+
+                payload = frameBufferPool.acquire(frameSize);
+                payload.headerTime = System.nanoTime();
+                payloadLength = frameSize;
+                state = State.PAYLOAD;
+            }
+
+            int count = Math.min(buffer.remaining(), payloadLength - payload.length);
+            buffer.get(payload.data, payload.length, count);
+            payload.length += count;
+
+            if (payload.length == payloadLength) {
+                FrameBuffer frame = payload;
+                frame.payloadTime = System.nanoTime();
+                payload = null;
+                state = State.HEADER;
+                frameListener.onFrame(frame);
+            }
+        }
+    }
+
+    void reset() {
+        if (payload != null) {
+            frameBufferPool.release(payload);
+            payload = null;
+        }
+
+        header.clear();
+        state = State.HEADER;
+    }
+}
@@ -0,0 +1,27 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Single-slot, latest-wins handoff between two threads.
+class FrameMailbox<T> {
+    private final AtomicReference<T> slot = new AtomicReference<>();
+    private final AtomicLong dropCount = new AtomicLong();
+
+    // Returns the unconsumed item that was replaced, if any, so the caller can recycle it.
+    T offer(T item) {
+        T displaced = slot.getAndSet(item);
+        if (displaced != null) {
+            dropCount.incrementAndGet();
+        }
+        return displaced;
+    }
+
+    T take() {
+        return slot.getAndSet(null);
+    }
+
+    long getDropCount() {
+        return dropCount.get();
+    }
+}
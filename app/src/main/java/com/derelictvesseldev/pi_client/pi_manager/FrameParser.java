@@ -0,0 +1,161 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Splits a monitor frame payload into its length-prefixed tiles without copying, whether it is on
+// the heap or in a receive ring; tile offsets are relative to the start of the payload. Kept free
+// of Android dependencies so it can be tested and benchmarked on a plain JVM.
+//
+// Versioned frames start with a header (all little-endian):
+//   u32 magic "PIFR", u8 version, u8 header size, u8 tile count, u8 grid columns,
+//   u16 tile width, u16 tile height, u8 encoding, u8 flags, u16 reserved,
+//   u32 sequence, u64 capture timestamp (server clock, microseconds)
+// followed by the tiles. Video frames (H.264/H.265 encodings) carry a single tile holding one
+// Annex B access unit. The header size lets newer versions append fields. Legacy frames have
+// no header and always carry four tiles stacked vertically; the magic is larger than
+// MAX_FRAME_SIZE, so it can never be mistaken for a legacy tile length.
+//
+// A zero-length tile is one the client did not subscribe to, or one unchanged since the last
+// frame sent on this connection.
+class FrameParser {
+    static final int LENGTH_SIZE = 4;
+    static final int MAGIC = 0x52464950;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 28;
+    static final int LEGACY_TILE_COUNT = 4;
+    static final int ENCODING_JPEG = 0;
+    static final int ENCODING_H264 = 1;
+    static final int ENCODING_H265 = 2;
+    static final long NO_SEQUENCE = -1;
+
+    final int[] tileOffsets;
+    final int[] tileLengths;
+    int tileCount;
+
+    // Describes the last parsed frame. Legacy frames get version 0 and the fixed layout.
+    int version;
+    int frameTileCount;
+    int gridColumns;
+    int tileWidth;
+    int tileHeight;
+    int encoding;
+    long sequence;
+    long timestampMicros;
+    private ByteBuffer wrapped;
+
+    FrameParser(int maxTiles) {
+        tileOffsets = new int[maxTiles];
+        tileLengths = new int[maxTiles];
+    }
+
+    // Returns the number of tiles found; parsing stops at the first truncated tile. A frame is
+    // whole only if this equals frameTileCount.
+    int parse(byte[] data, int frameSize) {
+        if (wrapped == null || wrapped.array() != data) {
+            wrapped = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return parse(wrapped, 0, frameSize);
+    }
+
+    int parse(FrameBuffer frame) {
+        return parse(frame.memory, frame.offset, frame.length);
+    }
+
+    // data must be little-endian; only absolute reads are used, so any thread may share it.
+    private int parse(ByteBuffer data, int offset, int frameSize) {
+        int bufferOffset = parseHeader(data, offset, frameSize);
+        tileCount = 0;
+        if (bufferOffset < 0) {
+            return 0;
+        }
+
+        int maxTiles = Math.min(frameTileCount, tileOffsets.length);
+        while (tileCount < maxTiles) {
+            if (frameSize - bufferOffset < LENGTH_SIZE) {
+                break;
+            }
+
+            int imageDataLength = data.getInt(offset + bufferOffset);
+            bufferOffset += LENGTH_SIZE;
+            if (imageDataLength < 0 || imageDataLength > frameSize - bufferOffset) {
+                break;
+            }
+
+            tileOffsets[tileCount] = bufferOffset;
+            tileLengths[tileCount] = imageDataLength;
+            bufferOffset += imageDataLength;
+            tileCount++;
+        }
+
+        return tileCount;
+    }
+
+    // Returns where the tiles start, or -1 for a malformed header.
+    private int parseHeader(ByteBuffer data, int offset, int frameSize) {
+        if (!isVersioned(data, offset, frameSize)) {
+            version = 0;
+            frameTileCount = LEGACY_TILE_COUNT;
+            gridColumns = 1;
+            tileWidth = 0;
+            tileHeight = 0;
+            encoding = ENCODING_JPEG;
+            sequence = NO_SEQUENCE;
+            timestampMicros = 0;
+            return 0;
+        }
+
+        frameTileCount = 0;
+        if (frameSize < HEADER_SIZE) {
+            return -1;
+        }
+
+        int headerSize = data.get(offset + 5) & 0xFF;
+        if (headerSize < HEADER_SIZE || headerSize > frameSize) {
+            return -1;
+        }
+
+        version = data.get(offset + 4) & 0xFF;
+        frameTileCount = data.get(offset + 6) & 0xFF;
+        gridColumns = Math.max(1, data.get(offset + 7) & 0xFF);
+        tileWidth = data.getShort(offset + 8) & 0xFFFF;
+        tileHeight = data.getShort(offset + 10) & 0xFFFF;
+        encoding = data.get(offset + 12) & 0xFF;
+        sequence = data.getInt(offset + 16) & 0xFFFFFFFFL;
+        timestampMicros = data.getLong(offset + 20);
+        return headerSize;
+    }
+
+    private static boolean isVersioned(ByteBuffer data, int offset, int frameSize) {
+        return frameSize >= LENGTH_SIZE && data.getInt(offset) == MAGIC;
+    }
+
+    // Sequence number of a frame without parsing its tiles, or NO_SEQUENCE for legacy frames.
+    static long readSequence(FrameBuffer frame) {
+        if (frame.length < HEADER_SIZE || !isVersioned(frame.memory, frame.offset, frame.length)) {
+            return NO_SEQUENCE;
+        }
+        return frame.memory.getInt(frame.offset + 16) & 0xFFFFFFFFL;
+    }
+
+    // Capture timestamp of a frame without parsing its tiles, or 0 for legacy frames.
+    static long readTimestampMicros(FrameBuffer frame) {
+        if (frame.length < HEADER_SIZE || !isVersioned(frame.memory, frame.offset, frame.length)) {
+            return 0;
+        }
+        return frame.memory.getLong(frame.offset + 20);
+    }
+
+    // Encoding of a frame without parsing its tiles; legacy frames are always JPEG.
+    static int readEncoding(FrameBuffer frame) {
+        if (frame.length < HEADER_SIZE || !isVersioned(frame.memory, frame.offset, frame.length)) {
+            return ENCODING_JPEG;
+        }
+        return frame.memory.get(frame.offset + 12) & 0xFF;
+    }
+
+    static int fromByteArray(byte[] bytes, int offset) {
+        return bytes[3 + offset] << 24 | (bytes[2 + offset] & 0xFF) << 16 |
+                (bytes[1 + offset] & 0xFF) << 8 | (bytes[offset] & 0xFF);
+    }
+}
@@ -0,0 +1,583 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.Process;
+import android.view.Surface;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+// Receive -> decode -> display, with a latest-wins mailbox between each stage so a slow stage
+// drops stale frames instead of queueing them.
+class FramePipeline implements FrameDecoder.FrameListener, MonitorStream.Sink {
+    // Frames may declare fewer tiles, never more; tile masks have a bit per tile.
+    static final int MAX_TILES = 16;
+    static final int MAX_POOLED_FRAMES = 4;
+    // Holds several frames at the stream's largest usual sizes; a frame that alone exceeds it
+    // ends the connection.
+    static final int RECEIVE_RING_SIZE = 8 * 1024 * 1024;
+
+    private final Handler resultHandler;
+    private final int receiveRingSize;
+    private final FrameCallback frameCallback;
+    private final TileFrameCallback tileFrameCallback;
+    private final FrameBufferPool frameBufferPool = new FrameBufferPool(3);
+    private final BitmapPool tileBitmapPool;
+    private final BitmapPool compositeBitmapPool = new BitmapPool(3);
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private final TileDecoder tileDecoder;
+    private final FrameParser frameParser = new FrameParser(MAX_TILES);
+    private final TileCache tileCache;
+    private final DroppedTiles droppedTiles = new DroppedTiles(MAX_TILES);
+    private final long[] tileHashes = new long[MAX_TILES];
+    private final FrameBuffer salvagedTile = new FrameBuffer(0);
+    // What each pooled composite already shows: tile versions per grid slot, then its layout.
+    private final IdentityHashMap<Bitmap, long[]> compositeContents = new IdentityHashMap<>();
+    private final SequenceTracker sequenceTracker = new SequenceTracker();
+    private final ClockSync clockSync = new ClockSync();
+    private final VideoPipeline videoPipeline = new VideoPipeline(frameBufferPool, metrics);
+    private final ArrayDeque<Frame> freeFrames = new ArrayDeque<>();
+    private final FrameMailbox<FrameBuffer> receivedFrames = new FrameMailbox<>();
+    private final FrameMailbox<Frame> decodedFrames = new FrameMailbox<>();
+    private final AtomicBoolean displayPending = new AtomicBoolean();
+    private final Runnable displayRunnable = this::displayLatest;
+    private final Canvas compositeCanvas = new Canvas();
+    private volatile Thread decodeThread;
+    private Thread stoppedThread;
+    private volatile long receivedCount;
+    // Only touched on the thread delivering frames.
+    private long arrivalCount;
+    private volatile long receivedBytes;
+    private volatile long receiveNanos;
+    private volatile long frameDecodeNanos;
+    private volatile long decodedCount;
+    private volatile long unsupportedCount;
+    private volatile long displayedCount;
+    private volatile long lateCount;
+    private volatile long frameDeadlineNanos;
+    private Frame displayedFrame;
+    private volatile long firstDisplayTime;
+    private volatile Runnable firstFrameListener;
+    private volatile boolean firstFrameReceived;
+    private volatile int tileMask = PiManager.ALL_TILES;
+    private volatile FrameRecorder recorder;
+    private FrameRing receiveRing;
+
+    FramePipeline(Handler resultHandler, FrameCallback frameCallback) {
+        this(resultHandler, frameCallback, null, null, null, RECEIVE_RING_SIZE);
+    }
+
+    // Tile mode hands the decoded tiles straight to the callback and never builds a composite.
+    FramePipeline(Handler resultHandler, TileFrameCallback tileFrameCallback) {
+        this(resultHandler, null, tileFrameCallback, null, null, RECEIVE_RING_SIZE);
+    }
+
+    // Pipelines of a PiSessionRegistry share the tile decode workers and tile bitmaps; passing
+    // null for either gives this pipeline its own.
+    FramePipeline(Handler resultHandler, FrameCallback frameCallback,
+                  TileFrameCallback tileFrameCallback, Executor sharedDecodeWorkers,
+                  BitmapPool sharedTileBitmapPool, int receiveRingSize) {
+        this.resultHandler = resultHandler;
+        this.receiveRingSize = receiveRingSize;
+        this.frameCallback = frameCallback;
+        this.tileFrameCallback = tileFrameCallback;
+        tileBitmapPool = sharedTileBitmapPool != null ? sharedTileBitmapPool :
+                new BitmapPool(MAX_TILES * MAX_POOLED_FRAMES);
+        tileDecoder = new TileDecoder(tileBitmapPool, MAX_TILES, metrics, sharedDecodeWorkers);
+        tileCache = new TileCache(tileBitmapPool, MAX_TILES);
+    }
+
+    FrameBufferPool getFrameBufferPool() {
+        return frameBufferPool;
+    }
+
+    // The monitor socket reads straight into this; allocated on first use.
+    @Override
+    public synchronized FrameRing getReceiveRing() {
+        if (receiveRing == null) {
+            receiveRing = new FrameRing(receiveRingSize, this);
+        }
+        return receiveRing;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (decodeThread != null) {
+            return;
+        }
+
+        // A previous decode thread may still be finishing its last frame.
+        PiThreads.join(stoppedThread);
+        stoppedThread = null;
+
+        firstDisplayTime = 0;
+        firstFrameReceived = false;
+        sequenceTracker.reset();
+        // Unchanged markers only refer to frames sent on the current connection.
+        tileCache.clear();
+        droppedTiles.clear();
+        decodeThread = PiThreads.newThread("PiFrameDecode", Process.THREAD_PRIORITY_DISPLAY,
+                this::decodeLoop);
+        decodeThread.start();
+        videoPipeline.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        Thread thread = decodeThread;
+        if (thread == null) {
+            return;
+        }
+
+        decodeThread = null;
+        stoppedThread = thread;
+        LockSupport.unpark(thread);
+        frameBufferPool.release(receivedFrames.take());
+        videoPipeline.stop();
+    }
+
+    // Stops decoding and waits for every decode thread to finish. The pipeline cannot be
+    // restarted afterwards.
+    void shutdown() {
+        stop();
+        synchronized (this) {
+            PiThreads.join(stoppedThread);
+            stoppedThread = null;
+        }
+        // Cached tiles go back to the pool, which may be shared and outlive this pipeline.
+        tileCache.clear();
+        videoPipeline.shutdown();
+        tileDecoder.shutdown();
+    }
+
+    // System.nanoTime() of the first frame displayed since start(), or 0 if none yet.
+    long getFirstDisplayTime() {
+        return firstDisplayTime;
+    }
+
+    // Runs on the reader thread when the first frame after each start() arrives.
+    void setFirstFrameListener(Runnable listener) {
+        firstFrameListener = listener;
+    }
+
+    PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Called on the monitor reader thread for every complete frame.
+    @Override
+    public void onFrame(FrameBuffer frame) {
+        receivedCount++;
+        frame.arrival = ++arrivalCount;
+        receivedBytes += FrameDecoder.HEADER_SIZE + frame.length;
+        receiveNanos += frame.payloadTime - frame.headerTime;
+        FrameRecorder frameRecorder = recorder;
+        if (frameRecorder != null) {
+            frameRecorder.record(frame);
+        }
+        sequenceTracker.onSequence(FrameParser.readSequence(frame));
+        if (!firstFrameReceived) {
+            firstFrameReceived = true;
+            Runnable listener = firstFrameListener;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+
+        metrics.onReceived(FrameDecoder.HEADER_SIZE + frame.length);
+        metrics.record(PipelineStage.RECEIVE, frame.payloadTime - frame.headerTime);
+        if (FrameParser.readEncoding(frame) != FrameParser.ENCODING_JPEG) {
+            // The codec is fed from the heap, and may hold on to a frame for a while.
+            videoPipeline.offer(toHeap(frame));
+            return;
+        }
+
+        FrameBuffer dropped = receivedFrames.offer(frame);
+        if (dropped != null) {
+            droppedTiles.salvage(dropped);
+            frameBufferPool.release(dropped);
+        }
+
+        Thread thread = decodeThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // Moves a frame out of the receive ring, giving its space back straight away.
+    private FrameBuffer toHeap(FrameBuffer frame) {
+        if (frame.ring == null) {
+            return frame;
+        }
+
+        FrameBuffer copy = frameBufferPool.acquire(frame.length);
+        frame.copyTo(0, copy.data, 0, frame.length);
+        copy.length = frame.length;
+        copy.headerTime = frame.headerTime;
+        copy.payloadTime = frame.payloadTime;
+        frameBufferPool.release(frame);
+        return copy;
+    }
+
+    // H.264/H.265 frames render here; without a surface they are dropped.
+    void setVideoSurface(Surface surface) {
+        videoPipeline.setSurface(surface);
+    }
+
+    void setKeyFrameRequestListener(Runnable listener) {
+        videoPipeline.setKeyFrameRequestListener(listener);
+    }
+
+    // Every received frame is copied to the recorder before decoding; null stops recording.
+    void setRecorder(FrameRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    // Maps frame capture timestamps onto this device's clock; fed by the command channel.
+    ClockSync getClockSync() {
+        return clockSync;
+    }
+
+    // Frames captured longer ago than this are not decoded or, if they age while waiting for
+    // the display, not shown. 0 shows every frame. Needs synchronized clocks and frame
+    // timestamps; video frames are never hidden.
+    void setFrameDeadline(long nanos) {
+        frameDeadlineNanos = nanos;
+    }
+
+    // Takes effect from the next frame decoded.
+    void setTileMask(int tileMask) {
+        this.tileMask = tileMask;
+    }
+
+    AllocationStats getAllocationStats() {
+        return new AllocationStats(displayedCount, frameBufferPool.getAllocationCount(),
+                tileBitmapPool.getAllocationCount(), compositeBitmapPool.getAllocationCount());
+    }
+
+    boolean setNativeDecodeEnabled(boolean enabled) {
+        return tileDecoder.setNativeDecodeEnabled(enabled);
+    }
+
+    DecodeStats getDecodeStats() {
+        return tileDecoder.getDecodeStats();
+    }
+
+    long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    // Time from each frame's header to its last byte, summed over all frames; close to the
+    // elapsed time when the link is saturated.
+    long getReceiveNanos() {
+        return receiveNanos;
+    }
+
+    // Wall-clock time spent decoding complete frames, summed over all frames.
+    long getFrameDecodeNanos() {
+        return frameDecodeNanos;
+    }
+
+    DropStats getDropStats() {
+        // Video frames are counted alongside JPEG frames; they never drop before display.
+        return new DropStats(sequenceTracker.getLostFrames(), receivedCount,
+                receivedFrames.getDropCount() + videoPipeline.getDroppedCount(), unsupportedCount,
+                decodedCount + videoPipeline.getDecodedCount(), decodedFrames.getDropCount(),
+                displayedCount + videoPipeline.getRenderedCount(), lateCount);
+    }
+
+    private void decodeLoop() {
+        Thread self = Thread.currentThread();
+        while (decodeThread == self) {
+            FrameBuffer buffer = receivedFrames.take();
+            if (buffer == null) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            if (isLate(FrameParser.readTimestampMicros(buffer),
+                    System.nanoTime())) {
+                // Its tiles may still be needed by the unchanged markers of later frames.
+                lateCount++;
+                droppedTiles.salvage(buffer);
+                frameBufferPool.release(buffer);
+                continue;
+            }
+
+            Frame frame = decodeFrame(buffer);
+            if (frame == null) {
+                continue;
+            }
+
+            decodedCount++;
+            if (tileFrameCallback == null) {
+                // Tiles go straight back to the pool once composited; the composite itself is
+                // recycled when the next one replaces it on screen.
+                long compositeStart = System.nanoTime();
+                frame.composite = combineImageIntoOne(frame);
+                releaseTiles(frame);
+                metrics.record(PipelineStage.COMPOSITE, System.nanoTime() - compositeStart);
+            }
+
+            frame.postedTime = System.nanoTime();
+            releaseFrame(decodedFrames.offer(frame));
+            if (displayPending.compareAndSet(false, true)) {
+                resultHandler.post(displayRunnable);
+            }
+        }
+    }
+
+    private Frame decodeFrame(FrameBuffer buffer) {
+        Frame frame = obtainFrame();
+        frame.headerTime = buffer.headerTime;
+        frame.tileMask = tileMask;
+        long decodeStart = System.nanoTime();
+        metrics.record(PipelineStage.QUEUE, decodeStart - buffer.payloadTime);
+
+        try {
+            frameParser.parse(buffer);
+            if (!readFrameHeader(frame)) {
+                unsupportedCount++;
+                releaseFrame(frame);
+                return null;
+            }
+            decodeChangedTiles(buffer, frame);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            frameBufferPool.release(buffer);
+        }
+
+        if (!frame.isComplete()) {
+            releaseFrame(frame);
+            return null;
+        }
+
+        long decodeTime = System.nanoTime() - decodeStart;
+        frameDecodeNanos += decodeTime;
+        metrics.record(PipelineStage.DECODE, decodeTime);
+        return frame;
+    }
+
+    // Only tiles whose bytes differ from the cached ones are decoded; the rest reuse the cached
+    // bitmap. A zero-length tile is one the server marks unchanged since its previous frame, or
+    // one that is not subscribed. If that previous frame was dropped here, its copy of the tile
+    // is decoded instead.
+    private void decodeChangedTiles(FrameBuffer buffer, Frame frame) throws InterruptedException {
+        int parsed = Math.min(frameParser.tileCount, frame.tileCount);
+        int decodeMask = 0;
+        int salvageMask = 0;
+        int reuseMask = 0;
+        for (int i = 0; i < parsed; i++) {
+            int bit = 1 << i;
+            if ((frame.tileMask & bit) == 0) {
+                continue;
+            }
+
+            int length = frameParser.tileLengths[i];
+            tileHashes[i] = tileCache.hash(buffer, frameParser.tileOffsets[i], length);
+            if (length > 0) {
+                droppedTiles.discardOlderThan(i, buffer.arrival);
+            }
+
+            if (length == 0 && droppedTiles.has(i)) {
+                salvageMask |= bit;
+            }
+            else if (tileCache.contains(i, tileHashes[i])) {
+                reuseMask |= bit;
+            }
+            else if (length > 0) {
+                decodeMask |= bit;
+            }
+        }
+
+        tileDecoder.decodeTiles(buffer, frameParser, frame.tiles, decodeMask);
+
+        for (int i = 0; i < frame.tileCount; i++) {
+            int bit = 1 << i;
+            if ((salvageMask & bit) != 0) {
+                FrameBuffer tile = droppedTiles.take(i, salvagedTile);
+                tileHashes[i] = tileCache.hash(tile, 0, tile.length);
+                frame.tiles[i] = tileDecoder.decodeTile(tile, 0, tile.length);
+                decodeMask |= bit;
+            }
+
+            if ((decodeMask & bit) != 0 && frame.tiles[i] != null) {
+                tileCache.update(i, tileHashes[i], frame.tiles[i]);
+            }
+            else if ((reuseMask & bit) != 0) {
+                frame.tiles[i] = tileCache.reuse(i);
+            }
+            frame.tileVersions[i] = frame.tiles[i] != null ? tileCache.getVersion(i) : 0;
+        }
+    }
+
+    // Returns false for frames this client cannot show: no tiles, too many or not JPEG.
+    private boolean readFrameHeader(Frame frame) {
+        int tileCount = frameParser.frameTileCount;
+        if (tileCount == 0 || tileCount > MAX_TILES ||
+                frameParser.encoding != FrameParser.ENCODING_JPEG) {
+            return false;
+        }
+
+        frame.tileCount = tileCount;
+        frame.gridColumns = frameParser.gridColumns;
+        frame.sequence = frameParser.sequence;
+        frame.timestampMicros = frameParser.timestampMicros;
+        return true;
+    }
+
+    // Runs on the result handler; only ever one pending at a time.
+    private void displayLatest() {
+        displayPending.set(false);
+        Frame frame = decodedFrames.take();
+        if (frame == null) {
+            return;
+        }
+
+        long displayStart = System.nanoTime();
+        metrics.record(PipelineStage.POST, displayStart - frame.postedTime);
+        if (isLate(frame.timestampMicros, displayStart)) {
+            lateCount++;
+            releaseFrame(frame);
+            return;
+        }
+        frame.captureAgeNanos = captureAge(frame.timestampMicros, displayStart);
+
+        if (tileFrameCallback != null) {
+            tileFrameCallback.onFrame(frame);
+        }
+        else {
+            frameCallback.onFrame(frame.composite);
+        }
+
+        long displayEnd = System.nanoTime();
+        if (firstDisplayTime == 0) {
+            firstDisplayTime = displayEnd;
+        }
+        metrics.record(PipelineStage.DISPLAY, displayEnd - displayStart);
+        metrics.record(PipelineStage.TOTAL, displayEnd - frame.headerTime);
+        if (frame.captureAgeNanos >= 0) {
+            metrics.record(PipelineStage.CAPTURE_AGE,
+                    captureAge(frame.timestampMicros, displayEnd));
+        }
+        metrics.onDisplayed();
+
+        releaseFrame(displayedFrame);
+        displayedFrame = frame;
+        displayedCount++;
+    }
+
+    // How long ago the server captured a frame, or -1 if that cannot be known.
+    private long captureAge(long timestampMicros, long now) {
+        if (timestampMicros == 0 || !clockSync.isSynchronized()) {
+            return -1;
+        }
+        return now - clockSync.toClientNanos(timestampMicros);
+    }
+
+    private boolean isLate(long timestampMicros, long now) {
+        long deadline = frameDeadlineNanos;
+        return deadline > 0 && captureAge(timestampMicros, now) > deadline;
+    }
+
+    private Frame obtainFrame() {
+        Frame frame;
+        synchronized (freeFrames) {
+            frame = freeFrames.pollFirst();
+        }
+        return frame != null ? frame : new Frame(MAX_TILES);
+    }
+
+    private void releaseFrame(Frame frame) {
+        if (frame == null) {
+            return;
+        }
+
+        releaseTiles(frame);
+        compositeBitmapPool.release(frame.composite);
+        frame.composite = null;
+
+        synchronized (freeFrames) {
+            if (freeFrames.size() < MAX_POOLED_FRAMES) {
+                freeFrames.addFirst(frame);
+            }
+        }
+    }
+
+    private void releaseTiles(Frame frame) {
+        for (int i = 0; i < frame.tiles.length; i++) {
+            tileBitmapPool.release(frame.tiles[i]);
+            frame.tiles[i] = null;
+        }
+    }
+
+    // Lays the subscribed tiles out row by row in the frame's grid, each in a cell the size of
+    // the largest tile; unsubscribed ones take no space. A pooled composite last drawn with the
+    // same layout only has the cells whose tile changed since then redrawn.
+    private Bitmap combineImageIntoOne(Frame frame) {
+        int slots = 0;
+        int cellWidth = 0;
+        int cellHeight = 0;
+        for (int i = 0; i < frame.tileCount; i++) {
+            Bitmap tile = frame.tiles[i];
+            if (tile != null) {
+                slots++;
+                cellWidth = Math.max(cellWidth, tile.getWidth());
+                cellHeight = Math.max(cellHeight, tile.getHeight());
+            }
+        }
+
+        int columns = Math.min(frame.gridColumns, slots);
+        int rows = (slots + columns - 1) / columns;
+        Bitmap temp = compositeBitmapPool.obtain(cellWidth * columns, cellHeight * rows);
+        long layout = (long)cellWidth << 32 | (long)cellHeight << 8 | columns;
+        long[] drawn = compositeContentsOf(temp);
+        boolean redrawAll = drawn[MAX_TILES] != layout;
+        drawn[MAX_TILES] = layout;
+
+        compositeCanvas.setBitmap(temp);
+        int slot = 0;
+        for (int i = 0; i < frame.tileCount; i++) {
+            Bitmap tile = frame.tiles[i];
+            if (tile != null) {
+                long version = frame.tileVersions[i];
+                if (redrawAll || version == 0 || drawn[slot] != version) {
+                    compositeCanvas.drawBitmap(tile, cellWidth * (slot % columns),
+                            cellHeight * (slot / columns), null);
+                    drawn[slot] = version;
+                }
+                slot++;
+            }
+        }
+        compositeCanvas.setBitmap(null);
+        return temp;
+    }
+
+    // Composites recycled by their pool are forgotten the next time a new one turns up.
+    private long[] compositeContentsOf(Bitmap composite) {
+        long[] drawn = compositeContents.get(composite);
+        if (drawn != null) {
+            return drawn;
+        }
+
+        Iterator<Bitmap> it = compositeContents.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().isRecycled()) {
+                it.remove();
+            }
+        }
+
+        // The layout slot starts out matching nothing, so the first use draws every cell.
+        drawn = new long[MAX_TILES + 1];
+        drawn[MAX_TILES] = -1;
+        compositeContents.put(composite, drawn);
+        return drawn;
+    }
+}
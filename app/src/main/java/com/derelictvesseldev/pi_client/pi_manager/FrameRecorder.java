@@ -0,0 +1,197 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import android.os.Process;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Appends raw monitor frames to a file in the MONITOR_PORT wire format ([u32 size][payload]),
+// so a recording can also be replayed by the framing benchmark. A companion index file holds one
+// entry per frame: u64 data file offset and u64 receive time in nanoseconds since recording
+// started, both little-endian.
+//
+// The live path only copies each frame into a pooled buffer; a background thread batches them
+// through direct staging buffers into the file channels. Frames are dropped, never waited for,
+// when the writer falls behind.
+class FrameRecorder implements Closeable {
+    static final String INDEX_SUFFIX = ".idx";
+    static final int INDEX_ENTRY_SIZE = 16;
+    private static final int MAX_QUEUED_FRAMES = 16;
+    private static final int DATA_STAGING_SIZE = 1024 * 1024;
+    private static final int INDEX_STAGING_SIZE = INDEX_ENTRY_SIZE * 256;
+    private static final long POLL_TIMEOUT_MS = 100;
+
+    private final FileChannel dataChannel;
+    private final FileChannel indexChannel;
+    private final FrameBufferPool bufferPool = new FrameBufferPool(MAX_QUEUED_FRAMES);
+    private final ArrayBlockingQueue<FrameBuffer> queue =
+            new ArrayBlockingQueue<>(MAX_QUEUED_FRAMES);
+    private final ByteBuffer dataStaging = ByteBuffer.allocateDirect(DATA_STAGING_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer indexStaging = ByteBuffer.allocateDirect(INDEX_STAGING_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final Thread writerThread;
+    private final long startTime = System.nanoTime();
+    private long dataOffset;
+    private volatile boolean closed;
+    private volatile IOException failure;
+    private volatile long recordedFrames;
+    private volatile long droppedFrames;
+    private volatile long bytesWritten;
+
+    FrameRecorder(File file) throws IOException {
+        dataChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            indexChannel = FileChannel.open(indexFile(file).toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            dataChannel.close();
+            throw e;
+        }
+
+        writerThread = PiThreads.newThread("PiFrameRecorder", Process.THREAD_PRIORITY_BACKGROUND,
+                this::writeLoop);
+        writerThread.start();
+    }
+
+    static File indexFile(File file) {
+        return new File(file.getPath() + INDEX_SUFFIX);
+    }
+
+    // Called on the monitor reader thread; the caller keeps ownership of frame.
+    void record(FrameBuffer frame) {
+        if (closed || failure != null) {
+            return;
+        }
+
+        FrameBuffer copy = bufferPool.acquire(frame.length);
+        frame.copyTo(0, copy.data, 0, frame.length);
+        copy.length = frame.length;
+        copy.headerTime = frame.headerTime;
+        if (!queue.offer(copy)) {
+            bufferPool.release(copy);
+            droppedFrames++;
+        }
+    }
+
+    long getRecordedFrames() {
+        return recordedFrames;
+    }
+
+    long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    // Writes out everything queued so far, then closes the files. Throws the first write error.
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            dataChannel.close();
+        } finally {
+            indexChannel.close();
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                FrameBuffer frame = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    if (closed) {
+                        break;
+                    }
+                    continue;
+                }
+
+                try {
+                    write(frame);
+                } finally {
+                    bufferPool.release(frame);
+                }
+
+                // Batch while frames are queued; flush as soon as the writer catches up.
+                if (queue.isEmpty()) {
+                    flush();
+                }
+            }
+            flush();
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        FrameBuffer frame;
+        while ((frame = queue.poll()) != null) {
+            bufferPool.release(frame);
+        }
+    }
+
+    private void write(FrameBuffer frame) throws IOException {
+        if (indexStaging.remaining() < INDEX_ENTRY_SIZE) {
+            drain(indexStaging, indexChannel);
+        }
+        indexStaging.putLong(dataOffset);
+        indexStaging.putLong(frame.headerTime - startTime);
+
+        int recordSize = FrameDecoder.HEADER_SIZE + frame.length;
+        if (dataStaging.remaining() < recordSize) {
+            drain(dataStaging, dataChannel);
+        }
+
+        if (recordSize <= dataStaging.capacity()) {
+            dataStaging.putInt(frame.length);
+            dataStaging.put(frame.data, 0, frame.length);
+        }
+        else {
+            // Larger than the staging buffer: write the payload straight from the frame.
+            dataStaging.putInt(frame.length);
+            drain(dataStaging, dataChannel);
+            ByteBuffer payload = ByteBuffer.wrap(frame.data, 0, frame.length);
+            while (payload.hasRemaining()) {
+                dataChannel.write(payload);
+            }
+        }
+
+        dataOffset += recordSize;
+        bytesWritten = dataOffset;
+        recordedFrames++;
+    }
+
+    // Data goes out before its index entries, so the index never points past the data.
+    private void flush() throws IOException {
+        drain(dataStaging, dataChannel);
+        drain(indexStaging, indexChannel);
+    }
+
+    private static void drain(ByteBuffer staging, FileChannel channel) throws IOException {
+        staging.flip();
+        while (staging.hasRemaining()) {
+            channel.write(staging);
+        }
+        staging.clear();
+    }
+}
@@ -0,0 +1,163 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Read side of FrameRecorder's files. The data file is memory-mapped in windows, so seeking to
+// any frame is a lookup in the index plus one copy out of the page cache. If the index is missing
+// or shorter than the data (the recorder was killed), the rest is rebuilt by walking the length
+// prefixes; those frames get the last known timestamp.
+class FrameRecording implements Closeable {
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private final FileChannel dataChannel;
+    private final long dataSize;
+    private long[] offsets;
+    private long[] timestamps;
+    private int frameCount;
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    FrameRecording(File file) throws IOException {
+        dataChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            dataSize = dataChannel.size();
+            readIndex(FrameRecorder.indexFile(file));
+            scanUnindexedFrames();
+        } catch (IOException e) {
+            dataChannel.close();
+            throw e;
+        }
+    }
+
+    int getFrameCount() {
+        return frameCount;
+    }
+
+    // Receive time relative to the start of the recording.
+    long getTimestampNanos(int index) {
+        return timestamps[index];
+    }
+
+    int getFrameSize(int index) throws IOException {
+        return readSize(offsets[index]);
+    }
+
+    // Index of the first frame received at or after timestampNanos, or getFrameCount() if none.
+    int indexOfTimestamp(long timestampNanos) {
+        int index = Arrays.binarySearch(timestamps, 0, frameCount, timestampNanos);
+        if (index < 0) {
+            return -index - 1;
+        }
+
+        // Frames rebuilt without an index share timestamps; start at the first of them.
+        while (index > 0 && timestamps[index - 1] == timestampNanos) {
+            index--;
+        }
+        return index;
+    }
+
+    // Copies a frame's payload into buffer, as FrameDecoder would have delivered it.
+    void readFrame(int index, FrameBuffer buffer) throws IOException {
+        int size = getFrameSize(index);
+        long payloadOffset = offsets[index] + FrameDecoder.HEADER_SIZE;
+        map(payloadOffset, size);
+        window.position((int)(payloadOffset - windowStart));
+        window.get(buffer.data, 0, size);
+        buffer.length = size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Mappings are released when collected; the channel can go now.
+        window = null;
+        dataChannel.close();
+    }
+
+    // Maps a window of the data file that contains [offset, offset + length).
+    private void map(long offset, int length) throws IOException {
+        if (window != null && offset >= windowStart &&
+                offset + length <= windowStart + window.capacity()) {
+            return;
+        }
+
+        long size = Math.min(Math.max(WINDOW_SIZE, length), dataSize - offset);
+        window = dataChannel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        window.order(ByteOrder.LITTLE_ENDIAN);
+        windowStart = offset;
+    }
+
+    private void readIndex(File indexFile) throws IOException {
+        int entries = 0;
+        MappedByteBuffer index = null;
+        if (indexFile.exists()) {
+            try (FileChannel indexChannel = FileChannel.open(indexFile.toPath(),
+                    StandardOpenOption.READ)) {
+                long size = indexChannel.size();
+                entries = (int)Math.min(size / FrameRecorder.INDEX_ENTRY_SIZE, Integer.MAX_VALUE);
+                if (entries > 0) {
+                    index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0,
+                            (long)entries * FrameRecorder.INDEX_ENTRY_SIZE);
+                    index.order(ByteOrder.LITTLE_ENDIAN);
+                }
+            }
+        }
+
+        offsets = new long[Math.max(16, entries)];
+        timestamps = new long[offsets.length];
+        frameCount = 0;
+        for (int i = 0; i < entries; i++) {
+            long offset = index.getLong();
+            long timestamp = index.getLong();
+            // Stop at the first entry that does not describe a whole frame in the data file.
+            if (!isWholeFrame(offset)) {
+                break;
+            }
+            offsets[frameCount] = offset;
+            timestamps[frameCount] = timestamp;
+            frameCount++;
+        }
+    }
+
+    private void scanUnindexedFrames() throws IOException {
+        long offset = 0;
+        long timestamp = 0;
+        if (frameCount > 0) {
+            offset = offsets[frameCount - 1] + FrameDecoder.HEADER_SIZE +
+                    getFrameSize(frameCount - 1);
+            timestamp = timestamps[frameCount - 1];
+        }
+
+        while (isWholeFrame(offset)) {
+            if (frameCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, frameCount * 2);
+                timestamps = Arrays.copyOf(timestamps, frameCount * 2);
+            }
+            offsets[frameCount] = offset;
+            timestamps[frameCount] = timestamp;
+            offset += FrameDecoder.HEADER_SIZE + readSize(offset);
+            frameCount++;
+        }
+    }
+
+    private boolean isWholeFrame(long offset) throws IOException {
+        if (offset < 0 || dataSize - offset < FrameDecoder.HEADER_SIZE) {
+            return false;
+        }
+
+        int size = readSize(offset);
+        return size >= 0 && size <= FrameDecoder.MAX_FRAME_SIZE &&
+                dataSize - offset - FrameDecoder.HEADER_SIZE >= size;
+    }
+
+    private int readSize(long offset) throws IOException {
+        map(offset, FrameDecoder.HEADER_SIZE);
+        return window.getInt((int)(offset - windowStart));
+    }
+}
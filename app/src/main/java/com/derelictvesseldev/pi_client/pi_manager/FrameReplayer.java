@@ -0,0 +1,99 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import android.os.Process;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+// Feeds a recording into a FrameListener (normally the FramePipeline) at its original pace,
+// scaled by speed, exactly as live frames arrive from FrameDecoder.
+class FrameReplayer {
+    interface FinishedListener {
+        // Runs on the replay thread; error is null when the end of the recording was reached.
+        void onReplayFinished(IOException error);
+    }
+
+    private final FrameRecording recording;
+    private final FrameBufferPool frameBufferPool;
+    private final FrameDecoder.FrameListener frameListener;
+    private volatile Thread replayThread;
+    private volatile int currentIndex;
+
+    FrameReplayer(FrameRecording recording, FrameBufferPool frameBufferPool,
+                  FrameDecoder.FrameListener frameListener) {
+        this.recording = recording;
+        this.frameBufferPool = frameBufferPool;
+        this.frameListener = frameListener;
+    }
+
+    synchronized void start(int startIndex, double speed, FinishedListener finishedListener) {
+        if (replayThread != null) {
+            return;
+        }
+
+        currentIndex = startIndex;
+        replayThread = PiThreads.newThread("PiFrameReplay", Process.THREAD_PRIORITY_DISPLAY,
+                () -> replay(startIndex, speed, finishedListener));
+        replayThread.start();
+    }
+
+    // Returns once the replay thread has delivered its last frame.
+    void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = replayThread;
+            replayThread = null;
+        }
+        if (thread == null) {
+            return;
+        }
+
+        LockSupport.unpark(thread);
+        PiThreads.join(thread);
+    }
+
+    // Index of the next frame to be delivered.
+    int getCurrentIndex() {
+        return currentIndex;
+    }
+
+    private void replay(int startIndex, double speed, FinishedListener finishedListener) {
+        Thread self = Thread.currentThread();
+        IOException error = null;
+        long startTime = System.nanoTime();
+        long firstTimestamp = startIndex < recording.getFrameCount() ?
+                recording.getTimestampNanos(startIndex) : 0;
+
+        try {
+            for (int i = startIndex; i < recording.getFrameCount(); i++) {
+                long due = startTime +
+                        (long)((recording.getTimestampNanos(i) - firstTimestamp) / speed);
+                long wait;
+                while (replayThread == self && (wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, wait);
+                }
+                if (replayThread != self) {
+                    return;
+                }
+
+                FrameBuffer buffer = frameBufferPool.acquire(recording.getFrameSize(i));
+                try {
+                    recording.readFrame(i, buffer);
+                } catch (IOException e) {
+                    frameBufferPool.release(buffer);
+                    throw e;
+                }
+                buffer.headerTime = System.nanoTime();
+                buffer.payloadTime = buffer.headerTime;
+                currentIndex = i + 1;
+                frameListener.onFrame(buffer);
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+
+        if (replayThread == self && finishedListener != null) {
+            finishedListener.onReplayFinished(error);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+// Fixed block of direct memory the monitor socket reads into. Frames are cut out of the stream
+// where they landed and handed on as FrameBuffers pointing into the ring, so received bytes are
+// never copied onto the Java heap and the stream needs the same memory whatever its frame size.
+// Native code can decode tiles straight out of it.
+//
+// Frames never wrap around the end: when one will not fit, its first bytes move to the start of
+// the ring. Frames may be released in any order, from any thread; their space is reused once
+// every older frame has been released too. The socket side (writable, onReceived, reset) must
+// stay on one thread at a time.
+class FrameRing {
+    private static final long FULL_WAIT_MS = 100;
+
+    private final FrameDecoder.FrameListener frameListener;
+    private final int capacity;
+    private final ByteBuffer memory;
+    private final ByteBuffer writeView;
+    // Frames handed out and not yet reclaimed, oldest first, and spare buffer objects.
+    private final ArrayDeque<FrameBuffer> inFlight = new ArrayDeque<>();
+    private final ArrayDeque<FrameBuffer> freeBuffers = new ArrayDeque<>();
+    // Start of the frame being received (its length prefix) and end of the bytes received.
+    private int frameStart;
+    private int head;
+    private int frameSize = -1;
+    private long headerTime;
+    // Bumped every time receiving moves back to the start; frames from an older lap sit above
+    // frameStart.
+    private int lap;
+
+    FrameRing(int capacity, FrameDecoder.FrameListener frameListener) {
+        this.capacity = capacity;
+        this.frameListener = frameListener;
+        memory = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        writeView = memory.duplicate();
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    // Where the socket should read next. Returns null if the ring stayed full for a while, as
+    // it does when consumers fall behind; try again later.
+    ByteBuffer writable() throws InterruptedException {
+        long deadline = System.nanoTime() + FULL_WAIT_MS * 1000000L;
+        synchronized (this) {
+            while (true) {
+                if (needsWrap()) {
+                    tryWrap();
+                }
+
+                int limit = writeLimit();
+                if (!needsWrap() && limit > head) {
+                    writeView.limit(limit).position(head);
+                    return writeView;
+                }
+
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                wait(Math.max(1, remaining / 1000000L));
+            }
+        }
+    }
+
+    // Takes in what the socket read into the view from writable() and delivers every frame it
+    // completed.
+    void onReceived() throws IOException {
+        head = writeView.position();
+
+        while (true) {
+            if (frameSize < 0) {
+                if (head - frameStart < FrameDecoder.HEADER_SIZE) {
+                    return;
+                }
+
+                frameSize = memory.getInt(frameStart);
+                headerTime = System.nanoTime();
+                if (frameSize < 0 || frameSize > FrameDecoder.MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid frame size: " + frameSize);
+                }
+                if (FrameDecoder.HEADER_SIZE + frameSize > capacity) {
+                    throw new IOException("Frame larger than the receive ring: " + frameSize);
+                }
+            }
+
+            int payloadStart = frameStart + FrameDecoder.HEADER_SIZE;
+            if (head - payloadStart < frameSize) {
+                return;
+            }
+
+            FrameBuffer frame;
+            synchronized (this) {
+                frame = freeBuffers.pollFirst();
+                if (frame == null) {
+                    frame = new FrameBuffer(this, memory);
+                }
+                frame.offset = payloadStart;
+                frame.length = frameSize;
+                frame.released = false;
+                frame.ringLap = lap;
+                inFlight.addLast(frame);
+                frameStart = payloadStart + frameSize;
+            }
+
+            frame.headerTime = headerTime;
+            frame.payloadTime = System.nanoTime();
+            frameSize = -1;
+            frameListener.onFrame(frame);
+        }
+    }
+
+    // Drops a partly received frame, for when its connection ends.
+    synchronized void reset() {
+        head = frameStart;
+        frameSize = -1;
+    }
+
+    synchronized void release(FrameBuffer frame) {
+        if (frame.released) {
+            return;
+        }
+
+        frame.released = true;
+        while (!inFlight.isEmpty() && inFlight.peekFirst().released) {
+            freeBuffers.addLast(inFlight.pollFirst());
+        }
+        notifyAll();
+    }
+
+    synchronized int getFramesInFlight() {
+        return inFlight.size();
+    }
+
+    // Start of the oldest frame still in use, counting its length prefix, or -1 if none.
+    private int oldestStart() {
+        FrameBuffer oldest = inFlight.peekFirst();
+        return oldest != null ? oldest.offset - FrameDecoder.HEADER_SIZE : -1;
+    }
+
+    // Some frames from before the last move to the start are still in use, above frameStart.
+    private boolean isWrapped() {
+        FrameBuffer oldest = inFlight.peekFirst();
+        return oldest != null && oldest.ringLap != lap;
+    }
+
+    // Once wrapped, only the space up to the oldest frame is free.
+    private int writeLimit() {
+        return isWrapped() ? oldestStart() : capacity;
+    }
+
+    // The frame being received cannot finish before the end of the ring.
+    private boolean needsWrap() {
+        if (frameSize >= 0) {
+            return frameStart + FrameDecoder.HEADER_SIZE + frameSize > capacity;
+        }
+        return head == capacity;
+    }
+
+    // Copies count bytes from from down to the start of the ring, in place. Source and
+    // destination overlap when nothing else is in use, but copying upwards from the lowest
+    // address never overwrites a byte before it has been read, as the destination is lower.
+    private void moveToStart(int from, int count) {
+        int i = 0;
+        for (; i <= count - 8; i += 8) {
+            memory.putLong(i, memory.getLong(from + i));
+        }
+        for (; i < count; i++) {
+            memory.put(i, memory.get(from + i));
+        }
+    }
+
+    // Moves the start of the frame being received to the start of the ring, once the frames
+    // occupying that space have been released.
+    private void tryWrap() {
+        if (isWrapped()) {
+            return;
+        }
+
+        int received = head - frameStart;
+        int needed = frameSize >= 0 ? FrameDecoder.HEADER_SIZE + frameSize : received;
+        int oldest = oldestStart();
+        if (oldest >= 0 && needed > oldest) {
+            return;
+        }
+
+        moveToStart(frameStart, received);
+        frameStart = 0;
+        head = received;
+        lap++;
+    }
+}
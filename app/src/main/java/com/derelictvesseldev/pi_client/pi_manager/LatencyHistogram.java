@@ -0,0 +1,45 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import java.util.Arrays;
+
+// Keeps the most recent samples in a fixed ring; percentiles are computed only on demand.
+class LatencyHistogram {
+    private final long[] samples;
+    private final long[] sorted;
+    private int next;
+    private int count;
+
+    LatencyHistogram(int capacity) {
+        samples = new long[capacity];
+        sorted = new long[capacity];
+    }
+
+    synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+    }
+
+    synchronized void reset() {
+        next = 0;
+        count = 0;
+    }
+
+    // Fills millis with the requested percentiles; all zero when there are no samples.
+    synchronized void percentilesMillis(int[] percentiles, double[] millis) {
+        System.arraycopy(samples, 0, sorted, 0, count);
+        Arrays.sort(sorted, 0, count);
+
+        for (int i = 0; i < percentiles.length; i++) {
+            if (count == 0) {
+                millis[i] = 0;
+                continue;
+            }
+
+            int index = Math.min(count - 1, (int)((long)count * percentiles[i] / 100));
+            millis[i] = sorted[index] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+class MonitorChannel implements Closeable {
+    private static final int RECEIVE_BUFFER_SIZE = 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+    private final String host;
+    private final int port;
+    // Exactly one of these is set. A ring is read into directly; a decoder copies out of
+    // readBuffer into heap frames.
+    private final FrameDecoder frameDecoder;
+    private final FrameRing frameRing;
+    private final ByteBuffer readBuffer;
+    private final long stallTimeoutMillis;
+    private final Selector selector;
+    private volatile boolean closed;
+    private volatile long connectedTime;
+
+    MonitorChannel(String host, int port, FrameDecoder frameDecoder) throws IOException {
+        this(host, port, frameDecoder, 0);
+    }
+
+    // With a non-zero stallTimeoutMillis, run() fails with SocketTimeoutException if connecting
+    // or the stream goes quiet for that long.
+    MonitorChannel(String host, int port, FrameDecoder frameDecoder, long stallTimeoutMillis)
+            throws IOException {
+        this(host, port, frameDecoder, null, stallTimeoutMillis);
+    }
+
+    MonitorChannel(String host, int port, FrameRing frameRing, long stallTimeoutMillis)
+            throws IOException {
+        this(host, port, null, frameRing, stallTimeoutMillis);
+    }
+
+    private MonitorChannel(String host, int port, FrameDecoder frameDecoder, FrameRing frameRing,
+                           long stallTimeoutMillis) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.frameDecoder = frameDecoder;
+        this.frameRing = frameRing;
+        this.stallTimeoutMillis = stallTimeoutMillis;
+        readBuffer = frameDecoder != null ? ByteBuffer.allocateDirect(READ_BUFFER_SIZE) : null;
+        selector = Selector.open();
+    }
+
+    // Blocks until the stream ends, stalls, fails or close() is called from another thread.
+    void run() throws IOException {
+        try (SocketChannel channel = SocketChannel.open()) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+
+            SelectionKey key;
+            if (channel.connect(new InetSocketAddress(host, port))) {
+                connectedTime = System.nanoTime();
+                key = channel.register(selector, SelectionKey.OP_READ);
+            }
+            else {
+                key = channel.register(selector, SelectionKey.OP_CONNECT);
+            }
+
+            long lastActivityTime = System.nanoTime();
+            while (!closed) {
+                int ready = selector.select(stallTimeoutMillis);
+                selector.selectedKeys().clear();
+                if (closed || !key.isValid()) {
+                    break;
+                }
+
+                // Only bytes received count as activity; a consumer that stops draining the
+                // ring stalls the stream just like a quiet server.
+                boolean progressed = false;
+                if (ready > 0 && key.isConnectable()) {
+                    if (channel.finishConnect()) {
+                        connectedTime = System.nanoTime();
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                    progressed = true;
+                }
+                else if (ready > 0 && key.isReadable()) {
+                    if (frameRing != null) {
+                        progressed = readIntoRing(channel);
+                    }
+                    else {
+                        int read = channel.read(readBuffer);
+                        if (read < 0) {
+                            throw new EOFException("Monitor stream closed by server");
+                        }
+
+                        readBuffer.flip();
+                        frameDecoder.decode(readBuffer);
+                        readBuffer.clear();
+                        progressed = read > 0;
+                    }
+                }
+
+                long now = System.nanoTime();
+                if (progressed) {
+                    lastActivityTime = now;
+                }
+                else if (stallTimeoutMillis > 0 &&
+                        now - lastActivityTime >= stallTimeoutMillis * 1000000L) {
+                    throw new SocketTimeoutException("Monitor stream stalled");
+                }
+            }
+        } finally {
+            if (frameRing != null) {
+                frameRing.reset();
+            }
+            else {
+                frameDecoder.reset();
+            }
+            selector.close();
+        }
+    }
+
+    // While the ring is full the socket is left unread, so TCP slows the server down. Returns
+    // whether anything was read.
+    private boolean readIntoRing(SocketChannel channel) throws IOException {
+        ByteBuffer target;
+        try {
+            target = frameRing.writable();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        if (target == null) {
+            return false;
+        }
+
+        int read = channel.read(target);
+        if (read < 0) {
+            throw new EOFException("Monitor stream closed by server");
+        }
+        frameRing.onReceived();
+        return read > 0;
+    }
+
+    // System.nanoTime() when the connection was established, or 0 if it has not been yet.
+    long getConnectedTime() {
+        return connectedTime;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,168 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import android.os.Process;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+// The monitor half of a PiManager connection: one MonitorChannel at a time, each read on its own
+// receive thread into the pipeline's ring. Pausing closes it and asks the server to stop
+// capturing; resuming reopens it behind the command connection's token, with no new SSH upload.
+class MonitorStream {
+    // What the stream feeds; FramePipeline in the app.
+    interface Sink {
+        FrameRing getReceiveRing();
+
+        void start();
+
+        void stop();
+    }
+
+    interface CommandSender {
+        void sendCommand(String command, boolean collapse);
+    }
+
+    // Same keyword, so a quick pause/resume sends only the latest.
+    static final String STREAM_PAUSE = "stream pause";
+    static final String STREAM_RESUME = "stream resume";
+
+    private final int port;
+    private final long stallTimeoutMillis;
+    private final Sink sink;
+    private final CommandSender commandSender;
+    private final Executor opener;
+    private final Runnable lostListener;
+    private volatile String host;
+    private volatile MonitorChannel channel;
+    private volatile Thread receiveThread;
+    // Set by open() and cleared by close(), so resume() knows whether a connection wants it.
+    private volatile boolean wanted;
+    private volatile boolean paused;
+
+    // opener runs the blocking connect of a resumed stream; lostListener is told when a stream
+    // cannot be opened, or ends without close() (then from its receive thread).
+    MonitorStream(int port, long stallTimeoutMillis, Sink sink, CommandSender commandSender,
+                  Executor opener, Runnable lostListener) {
+        this.port = port;
+        this.stallTimeoutMillis = stallTimeoutMillis;
+        this.sink = sink;
+        this.commandSender = commandSender;
+        this.opener = opener;
+        this.lostListener = lostListener;
+    }
+
+    void setHost(String host) {
+        this.host = host;
+    }
+
+    // Runs on the control thread. Each connection gets its own receive thread, so closing the
+    // channel is all it takes to stop it. Does nothing while a channel is open, and while paused
+    // only records that resume() should open one; a lost one is closed before reconnecting.
+    void open() {
+        wanted = true;
+        if (paused || channel != null) {
+            return;
+        }
+
+        final MonitorChannel newChannel;
+        try {
+            newChannel = new MonitorChannel(host, port, sink.getReceiveRing(), stallTimeoutMillis);
+        } catch (IOException e) {
+            e.printStackTrace();
+            // Refused or timed out; retried like a stream that was lost.
+            if (wanted && !paused) {
+                lostListener.run();
+            }
+            return;
+        }
+
+        // The previous connection's receive thread was closed with its channel; let it finish
+        // delivering before the pipeline restarts.
+        PiThreads.join(receiveThread);
+        channel = newChannel;
+        sink.start();
+        Thread thread = PiThreads.newThread("PiMonitorReceive", Process.THREAD_PRIORITY_DISPLAY,
+                () -> {
+            try {
+                newChannel.run();
+            }
+            catch (Exception e) {
+                if (!newChannel.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+
+            // Ended without close(): server went away or the stream stalled.
+            if (!newChannel.isClosed()) {
+                lostListener.run();
+            }
+        });
+        receiveThread = thread;
+        thread.start();
+
+        // pause() may have missed the channel while it was opening.
+        if (paused) {
+            closeChannel();
+        }
+    }
+
+    void close() {
+        wanted = false;
+        closeChannel();
+    }
+
+    // Returns false if already paused. Works before open() too; the stream then stays closed
+    // until resume().
+    boolean pause() {
+        if (paused) {
+            return false;
+        }
+
+        paused = true;
+        commandSender.sendCommand(STREAM_PAUSE, true);
+        closeChannel();
+        return true;
+    }
+
+    // Returns false if not paused. Reopens the stream through the opener if a connection had
+    // opened it; otherwise the next open() does.
+    boolean resume() {
+        if (!paused) {
+            return false;
+        }
+
+        paused = false;
+        commandSender.sendCommand(STREAM_RESUME, true);
+        if (wanted) {
+            opener.execute(this::open);
+        }
+        return true;
+    }
+
+    boolean isPaused() {
+        return paused;
+    }
+
+    boolean isOpen() {
+        return channel != null;
+    }
+
+    long getConnectedTime() {
+        MonitorChannel current = channel;
+        return current != null ? current.getConnectedTime() : 0;
+    }
+
+    // Waits a bounded time for the last receive thread to finish; returns whether it did.
+    boolean join() {
+        return PiThreads.join(receiveThread);
+    }
+
+    private void closeChannel() {
+        MonitorChannel current = channel;
+        if (current != null) {
+            current.close();
+            channel = null;
+        }
+        sink.stop();
+    }
+}
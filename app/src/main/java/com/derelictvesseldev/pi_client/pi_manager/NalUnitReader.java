@@ -0,0 +1,130 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import java.nio.ByteBuffer;
+
+// Splits an H.264/H.265 Annex B byte stream into NAL units without copying. Units are separated
+// by 00 00 01 or 00 00 00 01 start codes; offsets and lengths describe each unit after its start
+// code. Kept free of Android dependencies so recorded streams can be checked on a plain JVM.
+class NalUnitReader {
+    static final int CODEC_H264 = 0;
+    static final int CODEC_H265 = 1;
+
+    static final int H264_IDR = 5;
+    static final int H264_SPS = 7;
+    static final int H264_PPS = 8;
+    static final int H265_IDR_W_RADL = 19;
+    static final int H265_IDR_N_LP = 20;
+    static final int H265_CRA = 21;
+    static final int H265_VPS = 32;
+    static final int H265_SPS = 33;
+    static final int H265_PPS = 34;
+
+    private static final byte[] START_CODE = { 0, 0, 0, 1 };
+
+    final int[] unitOffsets;
+    final int[] unitLengths;
+    final int[] unitTypes;
+    int unitCount;
+    private int codec;
+
+    NalUnitReader(int maxUnits) {
+        unitOffsets = new int[maxUnits];
+        unitLengths = new int[maxUnits];
+        unitTypes = new int[maxUnits];
+    }
+
+    // Returns the number of NAL units found in data[offset, offset + length). Bytes before the
+    // first start code are ignored, as are units beyond maxUnits.
+    int read(byte[] data, int offset, int length, int codec) {
+        this.codec = codec;
+        unitCount = 0;
+        int end = offset + length;
+        int prefix = findStartCode(data, offset, end);
+
+        while (prefix >= 0 && unitCount < unitOffsets.length) {
+            int start = prefix + 3;
+            int next = findStartCode(data, start, end);
+            int unitEnd = next >= 0 ? next : end;
+            // Trailing zeros belong to the next four-byte start code or are stream padding;
+            // a NAL unit never ends in a zero byte.
+            while (unitEnd > start && data[unitEnd - 1] == 0) {
+                unitEnd--;
+            }
+
+            if (unitEnd > start) {
+                unitOffsets[unitCount] = start;
+                unitLengths[unitCount] = unitEnd - start;
+                unitTypes[unitCount] = codec == CODEC_H265 ? (data[start] >> 1) & 0x3F :
+                        data[start] & 0x1F;
+                unitCount++;
+            }
+            prefix = next;
+        }
+
+        return unitCount;
+    }
+
+    boolean hasKeyFrame() {
+        for (int i = 0; i < unitCount; i++) {
+            if (isKeyFrame(unitTypes[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // True once every parameter set the decoder must be configured with is present.
+    boolean hasParameterSets() {
+        boolean vps = codec != CODEC_H265;
+        boolean sps = false;
+        boolean pps = false;
+        for (int i = 0; i < unitCount; i++) {
+            int type = unitTypes[i];
+            vps |= codec == CODEC_H265 && type == H265_VPS;
+            sps |= type == (codec == CODEC_H265 ? H265_SPS : H264_SPS);
+            pps |= type == (codec == CODEC_H265 ? H265_PPS : H264_PPS);
+        }
+        return vps && sps && pps;
+    }
+
+    // Copies the parameter set units, each with a four-byte start code, into out; this is the
+    // codec config buffer MediaCodec expects. Returns the number of bytes written.
+    int writeParameterSets(byte[] data, ByteBuffer out) {
+        int start = out.position();
+        for (int i = 0; i < unitCount; i++) {
+            if (isParameterSet(unitTypes[i])) {
+                out.put(START_CODE);
+                out.put(data, unitOffsets[i], unitLengths[i]);
+            }
+        }
+        return out.position() - start;
+    }
+
+    private boolean isKeyFrame(int type) {
+        if (codec == CODEC_H265) {
+            return type == H265_IDR_W_RADL || type == H265_IDR_N_LP || type == H265_CRA;
+        }
+        return type == H264_IDR;
+    }
+
+    private boolean isParameterSet(int type) {
+        if (codec == CODEC_H265) {
+            return type == H265_VPS || type == H265_SPS || type == H265_PPS;
+        }
+        return type == H264_SPS || type == H264_PPS;
+    }
+
+    // Index of the next 00 00 01 at or after from, or -1.
+    static int findStartCode(byte[] data, int from, int end) {
+        for (int i = from; i + 2 < end; i++) {
+            // No start code can begin at i, i + 1 or i + 2 unless data[i + 2] is 0 or 1.
+            if ((data[i + 2] & 0xFF) > 1) {
+                i += 2;
+            }
+            else if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
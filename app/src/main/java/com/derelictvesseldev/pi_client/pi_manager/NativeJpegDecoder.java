@@ -0,0 +1,71 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+
+final class NativeJpegDecoder {
+    private static final boolean AVAILABLE = load();
+
+    private NativeJpegDecoder() {}
+
+    static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    // Returns null if the native decoder cannot handle the image, so callers can fall back.
+    static Bitmap decode(byte[] data, int offset, int length, BitmapPool bitmapPool) {
+        return decode(nativeOpen(data, offset, length), bitmapPool);
+    }
+
+    // Same, reading in place from a direct buffer; offset is absolute.
+    static Bitmap decode(ByteBuffer data, int offset, int length, BitmapPool bitmapPool) {
+        if (!data.isDirect()) {
+            return null;
+        }
+        return decode(nativeOpenDirect(data, offset, length), bitmapPool);
+    }
+
+    // One decoder per image serves both the size query and the decode.
+    private static Bitmap decode(long decoder, BitmapPool bitmapPool) {
+        if (decoder == 0) {
+            return null;
+        }
+
+        try {
+            long size = nativeGetImageSize(decoder);
+            Bitmap bitmap = bitmapPool.obtain((int)(size >>> 32), (int)size);
+            if (nativeDecode(decoder, bitmap) != 0) {
+                bitmapPool.release(bitmap);
+                return null;
+            }
+            return bitmap;
+        } finally {
+            nativeClose(decoder);
+        }
+    }
+
+    private static boolean load() {
+        try {
+            System.loadLibrary("pi_client");
+            return nativeInit();
+        } catch (UnsatisfiedLinkError e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static native boolean nativeInit();
+
+    // Returns a decoder handle, or 0 if the data cannot be parsed. Every handle must be closed,
+    // on the thread that opened it.
+    private static native long nativeOpen(byte[] data, int offset, int length);
+
+    private static native long nativeOpenDirect(ByteBuffer data, int offset, int length);
+
+    private static native long nativeGetImageSize(long decoder);
+
+    private static native int nativeDecode(long decoder, Bitmap bitmap);
+
+    private static native void nativeClose(long decoder);
+}
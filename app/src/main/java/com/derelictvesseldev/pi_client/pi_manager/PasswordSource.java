@@ -0,0 +1,7 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+// Asked for the SSH password each time a token is uploaded, on the control thread, so it only
+// needs to exist in the clear for that upload. Returns null or "" if there is none any more.
+public interface PasswordSource {
+    String getPassword();
+}
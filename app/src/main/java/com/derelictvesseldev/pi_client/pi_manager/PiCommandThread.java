@@ -2,31 +2,87 @@ package com.derelictvesseldev.pi_client.pi_manager;
 
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Message;
+import android.os.Process;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
 
 interface PiCommandConnectCallback {
     void onConnect(Result result);
 }
 
+interface PiCommandLostCallback {
+    void onConnectionLost();
+}
+
+interface PiCommandReplyCallback {
+    // Runs on the reply reader thread; receivedNanos is System.nanoTime() on arrival.
+    void onReply(String reply, long receivedNanos);
+}
+
 public class PiCommandThread {
     private static final int COMMAND_PORT = 34602;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    // Keeps a write going regularly so a dead connection is noticed without user input.
+    private static final long HEARTBEAT_INTERVAL_MS = 2000;
+    private static final String HEARTBEAT_COMMAND = "ping";
+    private static final int MAX_REPLY_SIZE = 64 * 1024;
 
-    private final HandlerThread ht = new HandlerThread("PiCommandThread");
+    // Null when running on a looper shared with other connections.
+    private final HandlerThread ht;
     private final Handler handler;
+    private final ArrayDeque<String> pendingCommands = new ArrayDeque<>();
+    private final CommandEncoder commandEncoder = new CommandEncoder(256);
+    private final Runnable heartbeat = this::sendHeartbeat;
+    private final PiCommandLostCallback piCommandLostCallback;
+    private final PiCommandReplyCallback piCommandReplyCallback;
+    private volatile Thread replyReader;
+    private boolean flushScheduled;
     private Socket socket;
+    private OutputStream outputStream;
 
-    public PiCommandThread(PiCommandConnectCallback piCommandConnectCallback) {
-        ht.start();
-        handler = new Handler(ht.getLooper()) {
+    public PiCommandThread(PiCommandConnectCallback piCommandConnectCallback,
+                           PiCommandLostCallback piCommandLostCallback,
+                           PiCommandReplyCallback piCommandReplyCallback) {
+        this(piCommandConnectCallback, piCommandLostCallback, piCommandReplyCallback, null);
+    }
+
+    // Connections of a PiSessionRegistry write commands and heartbeats on one shared looper;
+    // passing null starts a thread of its own. Replies are still read on a thread per connection.
+    PiCommandThread(PiCommandConnectCallback piCommandConnectCallback,
+                    PiCommandLostCallback piCommandLostCallback,
+                    PiCommandReplyCallback piCommandReplyCallback, Looper sharedLooper) {
+        this.piCommandLostCallback = piCommandLostCallback;
+        this.piCommandReplyCallback = piCommandReplyCallback;
+        if (sharedLooper != null) {
+            ht = null;
+        }
+        else {
+            ht = new HandlerThread("PiCommandThread", Process.THREAD_PRIORITY_DEFAULT);
+            ht.start();
+        }
+        handler = new Handler(sharedLooper != null ? sharedLooper : ht.getLooper()) {
             public void handleMessage(Message msg) {
                 switch (msg.what) {
                     case 1:
                         try {
                             String host = (String)msg.obj;
-                            socket = new Socket(host, COMMAND_PORT);
+                            socket = new Socket();
+                            socket.connect(new InetSocketAddress(host, COMMAND_PORT),
+                                    CONNECT_TIMEOUT_MS);
+                            socket.setTcpNoDelay(true);
+                            outputStream = socket.getOutputStream();
+                            startReplyReader(socket);
+                            handler.postDelayed(heartbeat, HEARTBEAT_INTERVAL_MS);
                             piCommandConnectCallback.onConnect(new Result.Success());
                         }
                         catch (Exception e) {
@@ -38,6 +94,11 @@ public class PiCommandThread {
 
                     case 2:
                         try {
+                            synchronized (pendingCommands) {
+                                pendingCommands.clear();
+                            }
+                            handler.removeCallbacks(heartbeat);
+                            outputStream = null;
                             socket.close();
                         } catch (Exception e) {
                             e.printStackTrace();
@@ -45,17 +106,7 @@ public class PiCommandThread {
                         break;
 
                     case 3:
-                        if (socket == null || !socket.isConnected())
-                            break;
-
-                        try {
-                            String command = (String)msg.obj;
-                            OutputStream outputStream = socket.getOutputStream();
-                            outputStream.write(command.getBytes());
-                            outputStream.flush();
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
+                        flushCommands();
                         break;
                 }
             }
@@ -72,8 +123,107 @@ public class PiCommandThread {
         message.sendToTarget();
     }
 
+    // Closes the connection, then stops the thread once that has been handled; a shared looper
+    // is left running. The command thread cannot be used afterwards.
+    public void quit() {
+        disconnect();
+        if (ht != null) {
+            ht.quitSafely();
+            PiThreads.join(ht);
+        }
+        PiThreads.join(replyReader);
+    }
+
     public void sendCommand(String command) {
-        Message message = Message.obtain(handler, 3, command);
+        sendCommand(command, false);
+    }
+
+    // With collapse set, a still-queued command with the same keyword (text up to the first
+    // space) is replaced, so only the latest of a burst like "fps 10", "fps 15" is sent.
+    public void sendCommand(String command, boolean collapse) {
+        synchronized (pendingCommands) {
+            if (collapse) {
+                String keyword = keywordOf(command);
+                Iterator<String> it = pendingCommands.iterator();
+                while (it.hasNext()) {
+                    if (keywordOf(it.next()).equals(keyword)) {
+                        it.remove();
+                    }
+                }
+            }
+
+            pendingCommands.addLast(command);
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+
+        Message message = Message.obtain(handler, 3);
         message.sendToTarget();
     }
-}
\ No newline at end of file
+
+    // Everything queued since the last flush goes out in a single write.
+    private void flushCommands() {
+        commandEncoder.reset();
+        synchronized (pendingCommands) {
+            flushScheduled = false;
+            for (String command : pendingCommands) {
+                commandEncoder.append(command);
+            }
+            pendingCommands.clear();
+        }
+
+        if (outputStream == null || commandEncoder.getLength() == 0) {
+            return;
+        }
+
+        try {
+            outputStream.write(commandEncoder.getBuffer(), 0, commandEncoder.getLength());
+        } catch (Exception e) {
+            e.printStackTrace();
+            handler.removeCallbacks(heartbeat);
+            outputStream = null;
+            piCommandLostCallback.onConnectionLost();
+        }
+    }
+
+    // Replies are framed like commands. Servers without replies send nothing, and the reader
+    // just waits for the socket to close; lost connections are noticed by the writer.
+    private void startReplyReader(Socket socket) throws IOException {
+        DataInputStream inputStream = new DataInputStream(new BufferedInputStream(
+                socket.getInputStream()));
+        Thread reader = PiThreads.newThread("PiCommandReceive", Process.THREAD_PRIORITY_DEFAULT,
+                () -> {
+            byte[] header = new byte[CommandEncoder.LENGTH_SIZE];
+            try {
+                while (true) {
+                    inputStream.readFully(header);
+                    int length = FrameParser.fromByteArray(header, 0);
+                    if (length < 0 || length > MAX_REPLY_SIZE) {
+                        return;
+                    }
+
+                    byte[] reply = new byte[length];
+                    inputStream.readFully(reply);
+                    piCommandReplyCallback.onReply(new String(reply, StandardCharsets.UTF_8),
+                            System.nanoTime());
+                }
+            } catch (IOException e) {
+                // Closed by disconnect() or the server.
+            }
+        });
+        replyReader = reader;
+        reader.start();
+    }
+
+    private void sendHeartbeat() {
+        sendCommand(HEARTBEAT_COMMAND, true);
+        handler.postDelayed(heartbeat, HEARTBEAT_INTERVAL_MS);
+    }
+
+    private static String keywordOf(String command) {
+        int space = command.indexOf(' ');
+        return space < 0 ? command : command.substring(0, space);
+    }
+}
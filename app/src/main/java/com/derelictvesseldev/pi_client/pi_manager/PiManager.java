@@ -1,207 +1,625 @@
 package com.derelictvesseldev.pi_client.pi_manager;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
 import android.os.Handler;
+import android.os.Looper;
+import android.view.Surface;
 
-import com.jcraft.jsch.Channel;
-import com.jcraft.jsch.ChannelSftp;
-import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
-import com.jcraft.jsch.Session;
 import com.jcraft.jsch.SftpException;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.Socket;
-import java.util.ArrayList;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class PiManager {
+    public static final int ALL_TILES = ~0;
+
     private interface TokenReadyCallback {
         void onTokenReady(Result result);
     }
 
-    private static final String PI_USER = "pi-client-user";
-    private static final String TOKEN_FILE = "pi-server-token";
-    private static final String TOKEN_PATH = "/tmp/" + TOKEN_FILE;
-    private static final int SSH_PORT = 34600;
     private static final int MONITOR_PORT = 34601;
+    private static final long STATS_INTERVAL_MS = 1000;
+    private static final long STALL_TIMEOUT_MS = 3000;
+    private static final long RATE_CONTROL_INTERVAL_MS = 1000;
+    // A quick burst right after connecting, then occasional samples to follow clock drift.
+    private static final int CLOCK_SYNC_BURST = 4;
+    private static final long CLOCK_SYNC_BURST_INTERVAL_MS = 250;
+    private static final long CLOCK_SYNC_INTERVAL_MS = 10000;
 
     private final Context context;
-    private final ExecutorService executorService;
+    private final ExecutorService controlExecutor;
+    private final boolean ownsControlExecutor;
     private final Handler resultHandler;
     private final ConnectCallback connectCallback;
-    private final FrameCallback frameCallback;
     private final PiCommandThread piCommandThread;
+    private final FramePipeline framePipeline;
+    private final SshTokenSender sshTokenSender = new SshTokenSender();
+    private final ConnectionSupervisor supervisor;
+    private final MonitorStream monitorStream;
     private String host;
-    private String token;
-    private Future<?> monitorThreadFuture;
+    private volatile PasswordSource passwordSource;
+    private volatile String token;
+    private final Runnable statsReporter = this::reportStats;
+    private PipelineStatsListener statsListener;
+    private final RateController rateController;
+    private final Runnable rateControlUpdater = this::updateRateControl;
+    private final Runnable clockSyncer = this::syncClock;
+    private int clockSyncCount;
+    private boolean adaptiveRateEnabled;
+    private volatile long connectStartTime;
+    private volatile long tokenSentTime;
+    private volatile long commandConnectedTime;
+    private volatile long resumeStartTime;
+    // The connect's own first frame, kept once a pause restarts the stream.
+    private volatile boolean streamRestarted;
+    private volatile double connectFirstFrameMillis = -1;
+    private volatile int serverTileMask = ALL_TILES;
+    private volatile StreamEncoding streamEncoding = StreamEncoding.JPEG;
+    private FrameRecorder frameRecorder;
+    private FrameRecording replayRecording;
+    private FrameReplayer frameReplayer;
+
+    public PiManager(Context context, Handler resultHandler, ConnectCallback connectCallback,
+                     FrameCallback frameCallback) {
+        this(context, resultHandler, connectCallback,
+                new FramePipeline(resultHandler, frameCallback), null, null);
+    }
 
-    public PiManager(Context context, ExecutorService executorService, Handler resultHandler,
-                     ConnectCallback connectCallback, FrameCallback frameCallback) {
+    public PiManager(Context context, Handler resultHandler, ConnectCallback connectCallback,
+                     TileFrameCallback tileFrameCallback) {
+        this(context, resultHandler, connectCallback,
+                new FramePipeline(resultHandler, tileFrameCallback), null, null);
+    }
+
+    // Sessions of a PiSessionRegistry share the control executor and the command looper; passing
+    // null for either gives this manager its own.
+    PiManager(Context context, Handler resultHandler, ConnectCallback connectCallback,
+              FramePipeline framePipeline, ExecutorService sharedControlExecutor,
+              Looper sharedCommandLooper) {
         this.context = context;
-        this.executorService = executorService;
+        ownsControlExecutor = sharedControlExecutor == null;
+        controlExecutor = ownsControlExecutor ? PiThreads.newControlExecutor() :
+                sharedControlExecutor;
         this.resultHandler = resultHandler;
         this.connectCallback = connectCallback;
-        this.frameCallback = frameCallback;
-        piCommandThread = new PiCommandThread(this::commandConnect);
+        this.framePipeline = framePipeline;
+        supervisor = new ConnectionSupervisor(resultHandler, this::attemptReconnect);
+        framePipeline.setFirstFrameListener(() -> resultHandler.post(supervisor::onFrameReceived));
+        piCommandThread = new PiCommandThread(this::commandConnect, this::connectionLost,
+                (reply, receivedNanos) -> framePipeline.getClockSync().onReply(reply,
+                        receivedNanos), sharedCommandLooper);
+        framePipeline.setKeyFrameRequestListener(() -> piCommandThread.sendCommand("keyframe",
+                true));
+        rateController = new RateController(command -> piCommandThread.sendCommand(command,
+                true));
+        monitorStream = new MonitorStream(MONITOR_PORT, STALL_TIMEOUT_MS, framePipeline,
+                piCommandThread::sendCommand, controlExecutor, this::connectionLost);
     }
 
-    public void connect(String host, String password) {
+    // The password is fetched from passwordSource for every token upload, the first and any
+    // refreshed on reconnect, and is not kept.
+    public void connect(String host, PasswordSource passwordSource) {
+        stopReplay();
         this.host = host;
+        this.passwordSource = passwordSource;
+        monitorStream.setHost(host);
+        resultHandler.post(supervisor::onConnecting);
+        connectStartTime = System.nanoTime();
+        tokenSentTime = 0;
+        commandConnectedTime = 0;
+        resumeStartTime = 0;
+        streamRestarted = false;
+        connectFirstFrameMillis = -1;
 
         // Securely transmit token to pi-server.
         token = UUID.randomUUID().toString();
-        executorService.execute(() -> sendSecureToken(password, token, (result) -> {
+        controlExecutor.execute(() -> sendSecureToken(passwordSource, token, (result) -> {
             if (result instanceof Result.Success) {
-                // Next stage of connection: connect to command socket.
+                // Next stage of connection: open the monitor stream and the command socket
+                // side by side; the token goes out as soon as the command socket is up.
+                tokenSentTime = System.nanoTime();
+                monitorStream.open();
                 piCommandThread.connect(host);
             }
             else {
-                resultHandler.post(() -> connectCallback.onConnect(result));
+                resultHandler.post(() -> {
+                    supervisor.stop();
+                    connectCallback.onConnect(result);
+                });
             }
         }));
     }
 
     public void disconnect() {
+        passwordSource = null;
+        resultHandler.post(supervisor::stop);
+        resultHandler.post(this::stopClockSync);
         piCommandThread.disconnect();
-        monitorThreadFuture.cancel(true);
+        monitorStream.close();
+    }
+
+    // Must be called on the result handler's thread once the manager is no longer needed. Closes
+    // every connection, the cached SSH session included, and stops every thread this manager
+    // started, waiting a bounded time for each; the manager cannot be used afterwards.
+    public void shutdown() {
+        stopReplay();
+        stopRecording();
+        disconnect();
+        resultHandler.removeCallbacks(statsReporter);
+        resultHandler.removeCallbacks(rateControlUpdater);
+        resultHandler.removeCallbacks(clockSyncer);
+
+        // Queued control work (recorder close, SSH teardown) still runs first; a shared executor
+        // stays up for the other sessions.
+        Future<?> teardown = controlExecutor.submit(sshTokenSender::close);
+        if (ownsControlExecutor) {
+            controlExecutor.shutdown();
+        }
+        piCommandThread.quit();
+        monitorStream.join();
+        framePipeline.shutdown();
+        try {
+            teardown.get(PiThreads.JOIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Must be called on the result handler's thread, typically from onStop(). Closes the monitor
+    // stream, so nothing is received or decoded and a quiet stream is not taken for a stall,
+    // and asks the server to stop capturing. The command connection and its token stay up.
+    // Works before connect() too; the stream then stays closed until resume().
+    public void pause() {
+        if (monitorStream.isPaused()) {
+            return;
+        }
+
+        if (!streamRestarted) {
+            streamRestarted = true;
+            connectFirstFrameMillis = elapsedMillis(connectStartTime,
+                    framePipeline.getFirstDisplayTime());
+        }
+        resultHandler.removeCallbacks(rateControlUpdater);
+        monitorStream.pause();
+    }
+
+    // Must be called on the result handler's thread, typically from onStart(). Reopens the
+    // monitor stream with the current token, without SSH; it starts from the server's next
+    // frame, and a video stream from a fresh key frame.
+    public void resume() {
+        if (!monitorStream.isPaused()) {
+            return;
+        }
+
+        resumeStartTime = System.nanoTime();
+        monitorStream.resume();
+        if (supervisor.getState() == ConnectionState.DISCONNECTED || tokenSentTime == 0) {
+            // Not connected yet; connect() opens the stream itself.
+            return;
+        }
+
+        if (streamEncoding != StreamEncoding.JPEG) {
+            piCommandThread.sendCommand("keyframe", true);
+        }
+        restartRateControl();
+    }
+
+    public boolean isPaused() {
+        return monitorStream.isPaused();
     }
 
     public void sendCommand(String command) {
         piCommandThread.sendCommand(command);
     }
 
-    private void sendSecureToken(String password, String token,
-                                 TokenReadyCallback callback) {
-        Result result = null;
+    public void sendCommand(String command, boolean collapse) {
+        piCommandThread.sendCommand(command, collapse);
+    }
 
-        File file = new File(context.getFilesDir(), TOKEN_FILE);
-        FileOutputStream stream = null;
-        try {
-            stream = new FileOutputStream(file);
-            stream.write(token.getBytes());
-        } catch (IOException e) {
-            e.printStackTrace();
-            result = new Result.Error(e, "Cannot write token file!");
-        } finally {
+    public AllocationStats getAllocationStats() {
+        return framePipeline.getAllocationStats();
+    }
+
+    public DropStats getDropStats() {
+        return framePipeline.getDropStats();
+    }
+
+    // Only decode the tiles whose bits are set in tileMask (bit i for tile i); the others are
+    // skipped unparsed and left null in each Frame. With notifyServer the server is also asked,
+    // via "tiles <mask>", to stop encoding and sending the others. The request is repeated on
+    // every reconnect.
+    public void subscribeTiles(int tileMask, boolean notifyServer) {
+        if (tileMask == 0) {
+            throw new IllegalArgumentException("At least one tile must be subscribed");
+        }
+
+        framePipeline.setTileMask(tileMask);
+        int newServerMask = notifyServer ? tileMask : ALL_TILES;
+        if (newServerMask != serverTileMask) {
+            serverTileMask = newServerMask;
+            piCommandThread.sendCommand(tilesCommand(newServerMask), true);
+        }
+    }
+
+    // Ask the server for JPEG tiles or an H.264/H.265 stream. Video is decoded in hardware and
+    // rendered to the surface given to setVideoSurface instead of reaching the frame callback.
+    // The choice is repeated on every reconnect.
+    public void setStreamEncoding(StreamEncoding encoding) {
+        if (encoding != streamEncoding) {
+            streamEncoding = encoding;
+            piCommandThread.sendCommand("encoding " + encoding.commandName, true);
+        }
+    }
+
+    public StreamEncoding getStreamEncoding() {
+        return streamEncoding;
+    }
+
+    // Pass null when the surface is destroyed; video frames are dropped until a new one is set.
+    public void setVideoSurface(Surface surface) {
+        framePipeline.setVideoSurface(surface);
+    }
+
+    // Must be called on the result handler's thread. Raw monitor frames are appended to file as
+    // they arrive, before decoding, until stopRecording(); an index goes alongside it.
+    public void startRecording(File file) throws IOException {
+        stopRecording();
+        frameRecorder = new FrameRecorder(file);
+        framePipeline.setRecorder(frameRecorder);
+    }
+
+    public void stopRecording() {
+        FrameRecorder recorder = frameRecorder;
+        if (recorder == null) {
+            return;
+        }
+
+        frameRecorder = null;
+        framePipeline.setRecorder(null);
+        // Closing waits for the writer to drain the queue, so keep it off this thread.
+        controlExecutor.execute(() -> {
             try {
-                if (stream != null)
-                    stream.close();
+                recorder.close();
             } catch (IOException e) {
                 e.printStackTrace();
-                result = new Result.Error(e, "Cannot close token file!");
             }
+        });
+    }
+
+    public boolean isRecording() {
+        return frameRecorder != null;
+    }
+
+    // Must be called on the result handler's thread while disconnected. Plays a recording
+    // through the same decode and display path as live frames, from frameIndex at speed times
+    // the original pace.
+    public void startReplay(File file, int frameIndex, double speed) throws IOException {
+        FrameRecording recording = openReplay(file, speed);
+        startReplay(recording, Math.max(0, Math.min(frameIndex, recording.getFrameCount())),
+                speed);
+    }
+
+    // As startReplay, but from the first frame received offsetMillis into the recording.
+    public void startReplayAt(File file, long offsetMillis, double speed) throws IOException {
+        FrameRecording recording = openReplay(file, speed);
+        startReplay(recording, recording.indexOfTimestamp(offsetMillis * 1_000_000), speed);
+    }
+
+    public void stopReplay() {
+        FrameReplayer replayer = frameReplayer;
+        if (replayer == null) {
+            return;
         }
 
-        if (result == null) {
-            try {
-                JSch jsch = new JSch();
-                Session session = jsch.getSession(PI_USER, host, SSH_PORT);
-                session.setPassword(password);
-                session.setConfig("StrictHostKeyChecking", "no");
-                session.connect();
-                Channel channel = session.openChannel("sftp");
-                channel.connect();
-                ChannelSftp sftp = (ChannelSftp) channel;
-                sftp.put(file.getPath(), TOKEN_PATH);
-                channel.disconnect();
-                session.disconnect();
-            } catch (JSchException | SftpException e) {
-                e.printStackTrace();
-                result = new Result.Error(e, "Cannot send token to server!");
+        frameReplayer = null;
+        replayer.stop();
+        framePipeline.stop();
+        try {
+            replayRecording.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        replayRecording = null;
+    }
+
+    public boolean isReplaying() {
+        return frameReplayer != null;
+    }
+
+    private FrameRecording openReplay(File file, double speed) throws IOException {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("Replay speed must be positive");
+        }
+        if (supervisor.getState() != ConnectionState.DISCONNECTED) {
+            throw new IllegalStateException("Disconnect before replaying");
+        }
+
+        stopReplay();
+        return new FrameRecording(file);
+    }
+
+    private void startReplay(FrameRecording recording, int frameIndex, double speed) {
+        FrameReplayer replayer = new FrameReplayer(recording, framePipeline.getFrameBufferPool(),
+                framePipeline);
+        replayRecording = recording;
+        frameReplayer = replayer;
+        framePipeline.start();
+        replayer.start(frameIndex, speed, error -> {
+            if (error != null) {
+                error.printStackTrace();
             }
+            resultHandler.post(() -> {
+                if (frameReplayer == replayer) {
+                    stopReplay();
+                }
+            });
+        });
+    }
+
+    // Frames captured longer ago than this are hidden instead of shown late; 0 shows every frame.
+    // Only applies to JPEG frames from servers that timestamp frames and answer clock sync.
+    public void setFrameDeadlineMillis(long millis) {
+        framePipeline.setFrameDeadline(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    // Server clock minus this device's, in microseconds.
+    public long getClockOffsetMicros() {
+        return framePipeline.getClockSync().getOffsetMicros();
+    }
+
+    // Round trip the clock offset was measured over, which bounds its error to half; -1 until
+    // the clocks are synchronized.
+    public long getClockRoundTripMicros() {
+        return framePipeline.getClockSync().getRoundTripMicros();
+    }
+
+    // Switch tile decoding between the native AImageDecoder path and BitmapFactory at runtime.
+    // Returns false if the native decoder is unavailable on this device.
+    public boolean setNativeDecodeEnabled(boolean enabled) {
+        return framePipeline.setNativeDecodeEnabled(enabled);
+    }
+
+    public DecodeStats getDecodeStats() {
+        return framePipeline.getDecodeStats();
+    }
+
+    // Must be called on the result handler's thread. While enabled, decode time, drops and
+    // delivered frame rate are sampled every second and "fps"/"quality" commands are sent so the
+    // server stream matches what this device and network can take.
+    public void setAdaptiveRateEnabled(boolean enabled) {
+        if (enabled == adaptiveRateEnabled) {
+            return;
         }
 
-        if (result == null) {
-            callback.onTokenReady(new Result.Success());
+        adaptiveRateEnabled = enabled;
+        resultHandler.removeCallbacks(rateControlUpdater);
+        if (supervisor.getState() == ConnectionState.CONNECTED) {
+            // When disabling, hand the server back its full rate.
+            rateController.reset();
+            if (enabled) {
+                resultHandler.postDelayed(rateControlUpdater, RATE_CONTROL_INTERVAL_MS);
+            }
         }
-        else {
-            callback.onTokenReady(result);
+    }
+
+    public int getTargetFps() {
+        return rateController.getTargetFps();
+    }
+
+    public int getTargetQuality() {
+        return rateController.getTargetQuality();
+    }
+
+    // Must be called on the result handler's thread.
+    public void setConnectionStateListener(ConnectionStateListener listener) {
+        supervisor.setListener(listener);
+    }
+
+    public ConnectionState getConnectionState() {
+        return supervisor.getState();
+    }
+
+    public ConnectTimings getConnectTimings() {
+        long monitorConnectedTime = monitorStream.getConnectedTime();
+        long sessionNanos = sshTokenSender.getLastSessionNanos();
+        long firstDisplayTime = framePipeline.getFirstDisplayTime();
+        long resumeTime = resumeStartTime;
+
+        return new ConnectTimings(
+                tokenSentTime != 0 ? sessionNanos / 1e6 : -1,
+                tokenSentTime != 0 ? sshTokenSender.getLastUploadNanos() / 1e6 : -1,
+                elapsedMillis(tokenSentTime, commandConnectedTime),
+                elapsedMillis(tokenSentTime, monitorConnectedTime),
+                streamRestarted ? connectFirstFrameMillis :
+                        elapsedMillis(connectStartTime, firstDisplayTime),
+                // Until the resumed stream displays, the first display time is still the old one.
+                !monitorStream.isPaused() && firstDisplayTime > resumeTime ?
+                        elapsedMillis(resumeTime, firstDisplayTime) : -1,
+                sessionNanos == 0);
+    }
+
+    // Must be called on the result handler's thread. Stage timing is only collected while a
+    // listener is set; pass null to turn it off again.
+    public void setStatsListener(PipelineStatsListener listener) {
+        statsListener = listener;
+        resultHandler.removeCallbacks(statsReporter);
+        framePipeline.getMetrics().setEnabled(listener != null);
+        if (listener != null) {
+            resultHandler.postDelayed(statsReporter, STATS_INTERVAL_MS);
+        }
+    }
+
+    private void sendSecureToken(PasswordSource passwordSource, String token,
+                                 TokenReadyCallback callback) {
+        try {
+            String password = passwordSource.getPassword();
+            if (password == null || password.isEmpty()) {
+                throw new JSchException("No password available");
+            }
+            sshTokenSender.sendToken(host, password, token);
+        } catch (JSchException | SftpException e) {
+            e.printStackTrace();
+            callback.onTokenReady(new Result.Error(e, "Cannot send token to server!"));
+            return;
         }
+
+        callback.onTokenReady(new Result.Success());
     }
 
     private void commandConnect(Result result) {
+        boolean reconnecting = supervisor.getState() == ConnectionState.RECONNECTING;
+
         if (result instanceof Result.Success) {
-            // Initiate monitoring and send token for authorization.
-            monitorThread();
+            // Send token for authorization; the monitor stream is already connecting.
+            commandConnectedTime = System.nanoTime();
             piCommandThread.sendCommand(token);
+            if (streamEncoding != StreamEncoding.JPEG) {
+                piCommandThread.sendCommand("encoding " + streamEncoding.commandName, true);
+            }
+            if (serverTileMask != ALL_TILES) {
+                piCommandThread.sendCommand(tilesCommand(serverTileMask), true);
+            }
+            if (monitorStream.isPaused()) {
+                piCommandThread.sendCommand(MonitorStream.STREAM_PAUSE, true);
+            }
+            resultHandler.post(this::restartRateControl);
+            resultHandler.post(this::restartClockSync);
+        }
+        else {
+            monitorStream.close();
+        }
+
+        if (reconnecting) {
+            // The supervisor completes the reconnect once frames flow again; while paused none
+            // will, so the command connection is enough.
+            if (!(result instanceof Result.Success)) {
+                connectionLost();
+            }
+            else if (monitorStream.isPaused()) {
+                resultHandler.post(supervisor::onConnected);
+            }
+            return;
         }
 
-        resultHandler.post(() -> connectCallback.onConnect(result));
+        resultHandler.post(() -> {
+            if (result instanceof Result.Success) {
+                supervisor.onConnected();
+            }
+            else {
+                supervisor.stop();
+            }
+            connectCallback.onConnect(result);
+        });
+    }
+
+    private void connectionLost() {
+        resultHandler.post(supervisor::onConnectionLost);
     }
 
-    private void monitorThread() {
-        monitorThreadFuture = executorService.submit(() -> {
-            try {
-                Socket socket = new Socket(host, MONITOR_PORT);
-                byte[] b = new byte[4];
-                InputStream inputStream = socket.getInputStream();
-
-                while (!Thread.currentThread().isInterrupted()) {
-                    int recvBytes = inputStream.read(b, 0, 4);
-                    if (recvBytes != 4) {
-                        break;
-                    }
-
-                    int frameSize = fromByteArray(b, 0);
-                    int offset = 0;
-                    int remaining = frameSize;
-                    byte[] data = new byte[frameSize];
-                    while (remaining > 0) {
-                        recvBytes = inputStream.read(data, offset, remaining);
-                        if (recvBytes <= 0) {
-                            break;
-                        }
-
-                        offset += recvBytes;
-                        remaining -= recvBytes;
-                    }
-
-                    ArrayList<Bitmap> bitmaps = new ArrayList<>();
-                    int bufferOffset = 0;
-                    int imageDataLength;
-
-                    for (int i = 0; i < 4; i++) {
-                        imageDataLength = fromByteArray(data, bufferOffset);
-                        bufferOffset += 4;
-                        bitmaps.add(BitmapFactory.decodeByteArray(data, bufferOffset,
-                                imageDataLength));
-                        bufferOffset += imageDataLength;
-                    }
-
-                    resultHandler.post(() -> frameCallback.onFrame(combineImageIntoOne(bitmaps)));
-                }
+    // Runs on the result handler when the supervisor decides to retry.
+    private void attemptReconnect(boolean refreshToken) {
+        piCommandThread.disconnect();
+        monitorStream.close();
 
-                socket.close();
+        PasswordSource passwordSource = this.passwordSource;
+        if (!refreshToken || passwordSource == null) {
+            // Present the current token again; no SSH round trip.
+            controlExecutor.execute(() -> {
+                monitorStream.open();
+                piCommandThread.connect(host);
+            });
+            return;
+        }
+
+        String newToken = UUID.randomUUID().toString();
+        token = newToken;
+        controlExecutor.execute(() -> sendSecureToken(passwordSource, newToken, (result) -> {
+            if (supervisor.getState() != ConnectionState.RECONNECTING) {
+                return;
             }
-            catch (Exception e) {
-                e.printStackTrace();
+
+            if (result instanceof Result.Success) {
+                monitorStream.open();
+                piCommandThread.connect(host);
             }
-        });
+            else {
+                connectionLost();
+            }
+        }));
+    }
+
+    private static String tilesCommand(int tileMask) {
+        return tileMask == ALL_TILES ? "tiles all" : "tiles " + tileMask;
+    }
+
+    // A new command connection may be to a freshly started server, so start again from full rate.
+    private void restartRateControl() {
+        if (!adaptiveRateEnabled || monitorStream.isPaused()) {
+            return;
+        }
+
+        resultHandler.removeCallbacks(rateControlUpdater);
+        rateController.reset();
+        resultHandler.postDelayed(rateControlUpdater, RATE_CONTROL_INTERVAL_MS);
+    }
+
+    // The server's clock is only known for the current connection; until a reply arrives frames
+    // have no capture age and none are late.
+    private void restartClockSync() {
+        stopClockSync();
+        syncClock();
     }
 
-    int fromByteArray(byte[] bytes, int offset) {
-        return bytes[3 + offset] << 24 | (bytes[2 + offset] & 0xFF) << 16 |
-                (bytes[1 + offset] & 0xFF) << 8 | (bytes[offset] & 0xFF);
+    private void stopClockSync() {
+        resultHandler.removeCallbacks(clockSyncer);
+        framePipeline.getClockSync().reset();
+        clockSyncCount = 0;
     }
 
-    private Bitmap combineImageIntoOne(ArrayList<Bitmap> bitmap) {
-        Bitmap temp = Bitmap.createBitmap(bitmap.get(0).getWidth(),
-                bitmap.get(0).getHeight() * 4, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(temp);
-        int top = 0;
-        for (int i = 0; i < bitmap.size(); i++) {
-            canvas.drawBitmap(bitmap.get(i), 0f, top, null);
-            top += bitmap.get(i).getHeight();
+    // Servers that do not know the command ignore it.
+    private void syncClock() {
+        piCommandThread.sendCommand(ClockSync.request(System.nanoTime()));
+        clockSyncCount++;
+        resultHandler.postDelayed(clockSyncer, clockSyncCount < CLOCK_SYNC_BURST ?
+                CLOCK_SYNC_BURST_INTERVAL_MS : CLOCK_SYNC_INTERVAL_MS);
+    }
+
+    private void updateRateControl() {
+        if (!adaptiveRateEnabled) {
+            return;
+        }
+
+        if (supervisor.getState() == ConnectionState.CONNECTED) {
+            DropStats dropStats = framePipeline.getDropStats();
+            rateController.update(System.nanoTime(), dropStats.receivedFrames,
+                    dropStats.droppedBeforeDecode + dropStats.droppedBeforeDisplay,
+                    dropStats.decodedFrames, framePipeline.getFrameDecodeNanos(),
+                    framePipeline.getReceivedBytes(), framePipeline.getReceiveNanos());
+        }
+        resultHandler.postDelayed(rateControlUpdater, RATE_CONTROL_INTERVAL_MS);
+    }
+
+    private void reportStats() {
+        if (statsListener == null) {
+            return;
         }
-        return temp;
+
+        DropStats dropStats = framePipeline.getDropStats();
+        statsListener.onStats(framePipeline.getMetrics().snapshot(
+                dropStats.droppedBeforeDecode + dropStats.droppedBeforeDisplay));
+        resultHandler.postDelayed(statsReporter, STATS_INTERVAL_MS);
+    }
+
+    private static double elapsedMillis(long startTime, long endTime) {
+        return startTime != 0 && endTime != 0 ? (endTime - startTime) / 1e6 : -1;
     }
-}
\ No newline at end of file
+}
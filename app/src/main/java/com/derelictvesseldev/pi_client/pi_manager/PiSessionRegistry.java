@@ -0,0 +1,103 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Monitors several Pis at once: one PiManager per session, each with its own command and
+// monitor connections, receive and frame decode threads and a smaller receive ring. The control
+// thread (SSH uploads, reconnects), the command writer and heartbeat thread, the tile decode
+// workers and the tile bitmaps are shared, so they cost the same however many sessions are
+// open; one session's slow connect or upload delays the others' control work.
+//
+// Must be used on the result handler's thread.
+public class PiSessionRegistry {
+    // Room for a few frames at the usual tile sizes, where a lone PiManager gets 8 MB.
+    static final int SESSION_RING_SIZE = 2 * 1024 * 1024;
+
+    private final Context context;
+    private final Handler resultHandler;
+    private final ExecutorService controlExecutor = PiThreads.newControlExecutor();
+    private final HandlerThread commandThread = new HandlerThread("PiCommandThread",
+            Process.THREAD_PRIORITY_DEFAULT);
+    private final FairExecutor decodeWorkers = new FairExecutor(
+            TileDecoder.workerCount(FramePipeline.MAX_TILES),
+            PiThreads.threadFactory("PiTileDecode", Process.THREAD_PRIORITY_DISPLAY));
+    private final BitmapPool tileBitmapPool = new BitmapPool(
+            FramePipeline.MAX_TILES * FramePipeline.MAX_POOLED_FRAMES);
+    private final Map<String, PiManager> sessions = new LinkedHashMap<>();
+
+    public PiSessionRegistry(Context context, Handler resultHandler) {
+        this.context = context;
+        this.resultHandler = resultHandler;
+        commandThread.start();
+    }
+
+    // Name is any label unique among open sessions, typically the host.
+    public PiManager open(String name, ConnectCallback connectCallback,
+                          FrameCallback frameCallback) {
+        return open(name, connectCallback, frameCallback, null);
+    }
+
+    // As open, but the session delivers decoded tiles instead of composites.
+    public PiManager openTiles(String name, ConnectCallback connectCallback,
+                               TileFrameCallback tileFrameCallback) {
+        return open(name, connectCallback, null, tileFrameCallback);
+    }
+
+    private PiManager open(String name, ConnectCallback connectCallback,
+                           FrameCallback frameCallback, TileFrameCallback tileFrameCallback) {
+        if (sessions.containsKey(name)) {
+            throw new IllegalStateException("Session already open: " + name);
+        }
+
+        FramePipeline framePipeline = new FramePipeline(resultHandler, frameCallback,
+                tileFrameCallback, decodeWorkers.newLane(), tileBitmapPool, SESSION_RING_SIZE);
+        PiManager session = new PiManager(context, resultHandler, connectCallback,
+                framePipeline, controlExecutor, commandThread.getLooper());
+        sessions.put(name, session);
+        return session;
+    }
+
+    // Null if no such session is open.
+    public PiManager get(String name) {
+        return sessions.get(name);
+    }
+
+    public List<String> getSessionNames() {
+        return new ArrayList<>(sessions.keySet());
+    }
+
+    // Disconnects the session and stops its threads.
+    public void close(String name) {
+        PiManager session = sessions.remove(name);
+        if (session != null) {
+            session.shutdown();
+        }
+    }
+
+    // Closes every session, then stops the shared workers; the registry cannot be used afterwards.
+    public void shutdown() {
+        for (PiManager session : sessions.values()) {
+            session.shutdown();
+        }
+        sessions.clear();
+        decodeWorkers.shutdown();
+        controlExecutor.shutdown();
+        commandThread.quitSafely();
+        PiThreads.join(commandThread);
+        try {
+            controlExecutor.awaitTermination(PiThreads.JOIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Thread model for pi_manager. Every thread is named, runs at a fixed Android priority and is
+// started and stopped by exactly one owner:
+//
+//   network  PiMonitorReceive   one per connection, MonitorStream     DISPLAY
+//            PiCommandReceive   one per connection, PiCommandThread   DEFAULT
+//   decode   PiFrameDecode      FramePipeline                         DISPLAY
+//            PiTileDecode-n     TileDecoder or PiSessionRegistry,     DISPLAY
+//                               cores - 1 at most
+//            PiVideoDecode      VideoPipeline                         DISPLAY
+//            PiFrameReplay      FrameReplayer                         DISPLAY
+//   control  PiControl          PiManager or PiSessionRegistry,       DEFAULT
+//                               SSH upload, reconnects
+//            PiCommandThread    PiCommandThread or PiSessionRegistry, DEFAULT
+//                               command writes, heartbeat
+//   storage  PiFrameRecorder    FrameRecorder                         BACKGROUND
+//
+// Blocking network reads never run on a shared pool, so stopping a connection is a matter of
+// closing its channel, and every owner can join its threads on shutdown.
+final class PiThreads {
+    static final long JOIN_TIMEOUT_MS = 1000;
+
+    private PiThreads() {
+    }
+
+    static Thread newThread(String name, int priority, Runnable runnable) {
+        return new Thread(() -> {
+            Process.setThreadPriority(priority);
+            runnable.run();
+        }, name);
+    }
+
+    // Threads are named prefix-1, prefix-2, ... and are daemons, so a pool can never keep the
+    // process alive.
+    static ThreadFactory threadFactory(String prefix, int priority) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        return runnable -> {
+            Thread thread = newThread(prefix + "-" + threadIndex.incrementAndGet(), priority,
+                    runnable);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Control work is short and ordered: one thread keeps connects, reconnects and SSH uploads
+    // from racing each other.
+    static ExecutorService newControlExecutor() {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = newThread("PiControl", Process.THREAD_PRIORITY_DEFAULT, runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Waits a bounded time for thread to finish; returns whether it did.
+    static boolean join(Thread thread) {
+        if (thread == null || thread == Thread.currentThread()) {
+            return true;
+        }
+
+        try {
+            thread.join(JOIN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !thread.isAlive();
+    }
+}
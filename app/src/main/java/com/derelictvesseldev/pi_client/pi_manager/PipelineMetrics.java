@@ -0,0 +1,77 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+// Per-stage latency samples plus rolling throughput counters. Every recording call is a single
+// volatile read when disabled.
+class PipelineMetrics {
+    private static final int SAMPLES_PER_STAGE = 512;
+    private static final int[] PERCENTILES = { 50, 95, 99 };
+
+    private final LatencyHistogram[] histograms =
+            new LatencyHistogram[PipelineStage.values().length];
+    private volatile boolean enabled;
+    private long bytesReceived;
+    private long framesDisplayed;
+    private long windowStartTime;
+
+    PipelineMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram(SAMPLES_PER_STAGE);
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    synchronized void setEnabled(boolean enabled) {
+        if (enabled && !this.enabled) {
+            for (LatencyHistogram histogram : histograms) {
+                histogram.reset();
+            }
+            bytesReceived = 0;
+            framesDisplayed = 0;
+            windowStartTime = System.nanoTime();
+        }
+        this.enabled = enabled;
+    }
+
+    void record(PipelineStage stage, long nanos) {
+        if (enabled) {
+            histograms[stage.ordinal()].record(nanos);
+        }
+    }
+
+    void onReceived(int bytes) {
+        if (enabled) {
+            synchronized (this) {
+                bytesReceived += bytes;
+            }
+        }
+    }
+
+    void onDisplayed() {
+        if (enabled) {
+            synchronized (this) {
+                framesDisplayed++;
+            }
+        }
+    }
+
+    // Rates cover the time since the previous snapshot; latencies cover the most recent samples.
+    synchronized PipelineStats snapshot(long droppedFrames) {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - windowStartTime) / 1e9);
+        double framesPerSecond = framesDisplayed / seconds;
+        double bytesPerSecond = bytesReceived / seconds;
+        framesDisplayed = 0;
+        bytesReceived = 0;
+        windowStartTime = now;
+
+        double[][] stageMillis = new double[histograms.length][PERCENTILES.length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i].percentilesMillis(PERCENTILES, stageMillis[i]);
+        }
+
+        return new PipelineStats(framesPerSecond, bytesPerSecond, droppedFrames, stageMillis);
+    }
+}
@@ -0,0 +1,21 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+public enum PipelineStage {
+    // Header received to payload complete.
+    RECEIVE,
+    // Payload complete to decode start (time waiting in the mailbox).
+    QUEUE,
+    // A single tile, on whichever thread decoded it.
+    TILE_DECODE,
+    // All tiles of a frame, including the barrier.
+    DECODE,
+    COMPOSITE,
+    // Posted to the result handler until the display Runnable runs.
+    POST,
+    // Time spent inside the frame callback.
+    DISPLAY,
+    // Header received to frame callback returned.
+    TOTAL,
+    // Server capture to frame callback returned; only once the clocks are synchronized.
+    CAPTURE_AGE
+}
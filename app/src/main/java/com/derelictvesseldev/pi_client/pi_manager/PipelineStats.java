@@ -0,0 +1,44 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import java.util.Locale;
+
+public final class PipelineStats {
+    public final double framesPerSecond;
+    public final double bytesPerSecond;
+    public final long droppedFrames;
+    private final double[][] stageMillis;
+
+    PipelineStats(double framesPerSecond, double bytesPerSecond, long droppedFrames,
+                  double[][] stageMillis) {
+        this.framesPerSecond = framesPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.droppedFrames = droppedFrames;
+        this.stageMillis = stageMillis;
+    }
+
+    public double getP50Millis(PipelineStage stage) {
+        return stageMillis[stage.ordinal()][0];
+    }
+
+    public double getP95Millis(PipelineStage stage) {
+        return stageMillis[stage.ordinal()][1];
+    }
+
+    public double getP99Millis(PipelineStage stage) {
+        return stageMillis[stage.ordinal()][2];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "%.1f fps  %.2f MB/s  dropped %d%n",
+                framesPerSecond, bytesPerSecond / 1e6, droppedFrames));
+        builder.append("stage          p50     p95     p99 ms");
+        for (PipelineStage stage : PipelineStage.values()) {
+            builder.append(String.format(Locale.US, "%n%-12s %6.1f  %6.1f  %6.1f",
+                    stage.name().toLowerCase(Locale.US), getP50Millis(stage), getP95Millis(stage),
+                    getP99Millis(stage)));
+        }
+        return builder.toString();
+    }
+}
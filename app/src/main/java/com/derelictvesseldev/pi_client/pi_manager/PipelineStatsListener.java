@@ -0,0 +1,5 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+public interface PipelineStatsListener {
+    void onStats(PipelineStats stats);
+}
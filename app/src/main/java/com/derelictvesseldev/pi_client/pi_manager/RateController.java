@@ -0,0 +1,155 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+// Picks a target frame rate and JPEG quality from client-side measurements, backing off
+// multiplicatively when the stream cannot keep up and probing upwards slowly when it can.
+//
+// Client-bound (decoder behind: frames dropped before decode, or decode time near the frame
+// budget): lower fps. Fewer frames arriving than requested while the decoder keeps up is only
+// network-bound if frames spend most of the interval in transfer and bytes/s did not grow:
+// lower quality. Otherwise the server captures no faster, so fps follows what it delivers.
+// Healthy for a few intervals: restore quality first, then fps.
+class RateController {
+    interface CommandSink {
+        void send(String command);
+    }
+
+    static final int MAX_FPS = 30;
+    static final int MIN_FPS = 5;
+    static final int MAX_QUALITY = 90;
+    static final int MIN_QUALITY = 30;
+    private static final double FPS_DECREASE = 0.75;
+    private static final int FPS_INCREASE = 2;
+    private static final int QUALITY_DECREASE = 10;
+    private static final int QUALITY_INCREASE = 5;
+    private static final double MAX_DROP_RATIO = 0.1;
+    private static final double MAX_DECODE_BUDGET = 0.9;
+    private static final double MIN_DELIVERY_RATIO = 0.8;
+    // Share of the interval spent receiving frame payloads above which the link is saturated.
+    private static final double MIN_LINK_BUSY_RATIO = 0.7;
+    private static final double MIN_BYTES_GROWTH = 1.05;
+    private static final int HEALTHY_INTERVALS_TO_PROBE = 3;
+
+    private final CommandSink commandSink;
+    private int targetFps = MAX_FPS;
+    private int targetQuality = MAX_QUALITY;
+    private int healthyIntervals;
+    private boolean hasSample;
+    private long lastTime;
+    private long lastReceivedFrames;
+    private long lastDroppedFrames;
+    private long lastDecodedFrames;
+    private long lastDecodeNanos;
+    private long lastReceivedBytes;
+    private long lastReceiveNanos;
+    private double bytesPerSecond;
+
+    RateController(CommandSink commandSink) {
+        this.commandSink = commandSink;
+    }
+
+    int getTargetFps() {
+        return targetFps;
+    }
+
+    int getTargetQuality() {
+        return targetQuality;
+    }
+
+    double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    // Start over from full rate and tell the server so.
+    void reset() {
+        targetFps = MAX_FPS;
+        targetQuality = MAX_QUALITY;
+        healthyIntervals = 0;
+        hasSample = false;
+        commandSink.send("fps " + targetFps);
+        commandSink.send("quality " + targetQuality);
+    }
+
+    // Takes cumulative counters; decisions are made on the deltas since the previous call.
+    void update(long now, long receivedFrames, long droppedFrames, long decodedFrames,
+                long decodeNanos, long receivedBytes, long receiveNanos) {
+        if (!hasSample) {
+            hasSample = true;
+            bytesPerSecond = 0;
+            remember(now, receivedFrames, droppedFrames, decodedFrames, decodeNanos,
+                    receivedBytes, receiveNanos);
+            return;
+        }
+
+        double seconds = (now - lastTime) / 1e9;
+        long received = receivedFrames - lastReceivedFrames;
+        long dropped = droppedFrames - lastDroppedFrames;
+        long decoded = decodedFrames - lastDecodedFrames;
+        long decodeTime = decodeNanos - lastDecodeNanos;
+        long receiveTime = receiveNanos - lastReceiveNanos;
+        // Zero until there is a previous rate, which counts as not growing.
+        double previousBytesPerSecond = bytesPerSecond;
+        bytesPerSecond = seconds > 0 ? (receivedBytes - lastReceivedBytes) / seconds : 0;
+        remember(now, receivedFrames, droppedFrames, decodedFrames, decodeNanos, receivedBytes,
+                receiveNanos);
+
+        if (seconds <= 0 || received == 0) {
+            return;
+        }
+
+        double dropRatio = (double)dropped / received;
+        double decodeMillis = decoded > 0 ? decodeTime / 1e6 / decoded : 0;
+        double frameBudgetMillis = 1000.0 / targetFps;
+        double receivedFps = received / seconds;
+
+        if (dropRatio > MAX_DROP_RATIO || decodeMillis > MAX_DECODE_BUDGET * frameBudgetMillis) {
+            healthyIntervals = 0;
+            setFps(Math.max(MIN_FPS, (int)(targetFps * FPS_DECREASE)));
+        }
+        else if (receivedFps < MIN_DELIVERY_RATIO * targetFps) {
+            healthyIntervals = 0;
+            boolean linkBusy = receiveTime / 1e9 > MIN_LINK_BUSY_RATIO * seconds;
+            boolean bytesGrew = previousBytesPerSecond > 0 &&
+                    bytesPerSecond > MIN_BYTES_GROWTH * previousBytesPerSecond;
+            if (linkBusy && !bytesGrew) {
+                setQuality(Math.max(MIN_QUALITY, targetQuality - QUALITY_DECREASE));
+            }
+            else {
+                setFps(Math.max(MIN_FPS, Math.min(targetFps, (int)Math.ceil(receivedFps))));
+            }
+        }
+        else if (++healthyIntervals >= HEALTHY_INTERVALS_TO_PROBE) {
+            healthyIntervals = 0;
+            if (targetQuality < MAX_QUALITY) {
+                setQuality(Math.min(MAX_QUALITY, targetQuality + QUALITY_INCREASE));
+            }
+            else if (targetFps < MAX_FPS) {
+                setFps(Math.min(MAX_FPS, targetFps + FPS_INCREASE));
+            }
+        }
+    }
+
+    private void remember(long now, long receivedFrames, long droppedFrames, long decodedFrames,
+                          long decodeNanos, long receivedBytes, long receiveNanos) {
+        lastTime = now;
+        lastReceivedFrames = receivedFrames;
+        lastDroppedFrames = droppedFrames;
+        lastDecodedFrames = decodedFrames;
+        lastDecodeNanos = decodeNanos;
+        lastReceivedBytes = receivedBytes;
+        lastReceiveNanos = receiveNanos;
+    }
+
+    private void setFps(int fps) {
+        if (fps != targetFps) {
+            targetFps = fps;
+            commandSink.send("fps " + fps);
+        }
+    }
+
+    private void setQuality(int quality) {
+        if (quality != targetQuality) {
+            targetQuality = quality;
+            commandSink.send("quality " + quality);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+// Counts frames lost upstream of the client from gaps in the 32-bit frame sequence numbers.
+// A jump backwards or a very large jump forwards is taken as a server restart, not loss.
+class SequenceTracker {
+    private static final long MAX_GAP = 1 << 16;
+
+    private long lastSequence = FrameParser.NO_SEQUENCE;
+    private volatile long lostFrames;
+
+    void onSequence(long sequence) {
+        if (sequence == FrameParser.NO_SEQUENCE) {
+            return;
+        }
+
+        if (lastSequence != FrameParser.NO_SEQUENCE) {
+            long gap = (sequence - lastSequence) & 0xFFFFFFFFL;
+            if (gap > 1 && gap <= MAX_GAP) {
+                lostFrames += gap - 1;
+            }
+        }
+        lastSequence = sequence;
+    }
+
+    // Forget the last sequence number, e.g. across reconnects.
+    void reset() {
+        lastSequence = FrameParser.NO_SEQUENCE;
+    }
+
+    long getLostFrames() {
+        return lostFrames;
+    }
+}
@@ -0,0 +1,133 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpException;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+// Uploads connection tokens over SFTP, keeping the SSH session and SFTP channel open between
+// connects so a reconnect costs one small upload instead of a full SSH handshake. A session is
+// reused for the same host and user and a password with the same salted digest; the password
+// itself is not kept.
+class SshTokenSender {
+    private static final String PI_USER = "pi-client-user";
+    private static final String TOKEN_FILE = "pi-server-token";
+    private static final String TOKEN_PATH = "/tmp/" + TOKEN_FILE;
+    private static final int SSH_PORT = 34600;
+    private static final int KEEP_ALIVE_INTERVAL_MS = 15000;
+    private static final int KEEP_ALIVE_COUNT_MAX = 3;
+
+    private final JSch jsch = new JSch();
+    private final byte[] digestSalt = new byte[16];
+    private Session session;
+    private ChannelSftp sftp;
+    private String sessionHost;
+    private byte[] sessionPasswordDigest;
+    private long lastSessionNanos;
+    private long lastUploadNanos;
+
+    SshTokenSender() {
+        new SecureRandom().nextBytes(digestSalt);
+    }
+
+    synchronized void sendToken(String host, String password, String token)
+            throws JSchException, SftpException {
+        boolean reused = isReusable(host, password);
+        lastSessionNanos = 0;
+
+        try {
+            if (!reused) {
+                open(host, password);
+            }
+            upload(token);
+        } catch (JSchException | SftpException e) {
+            close();
+            if (!reused) {
+                throw e;
+            }
+
+            // The cached session went stale (e.g. the Pi rebooted); retry once on a fresh one.
+            open(host, password);
+            upload(token);
+        }
+    }
+
+    // Time spent on the SSH handshake in the last sendToken, or 0 if a cached session was used.
+    synchronized long getLastSessionNanos() {
+        return lastSessionNanos;
+    }
+
+    synchronized long getLastUploadNanos() {
+        return lastUploadNanos;
+    }
+
+    synchronized void close() {
+        if (sftp != null) {
+            sftp.disconnect();
+            sftp = null;
+        }
+        if (session != null) {
+            session.disconnect();
+            session = null;
+        }
+        sessionHost = null;
+        sessionPasswordDigest = null;
+    }
+
+    private boolean isReusable(String host, String password) {
+        return session != null && session.isConnected() && sftp != null && sftp.isConnected() &&
+                host.equals(sessionHost) && PI_USER.equals(session.getUserName()) &&
+                MessageDigest.isEqual(digest(password), sessionPasswordDigest);
+    }
+
+    private byte[] digest(String password) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(digestSalt);
+            return sha256.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform must provide SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void open(String host, String password) throws JSchException {
+        close();
+
+        long startTime = System.nanoTime();
+        Session newSession = jsch.getSession(PI_USER, host, SSH_PORT);
+        newSession.setPassword(password);
+        newSession.setConfig("StrictHostKeyChecking", "no");
+        newSession.setServerAliveInterval(KEEP_ALIVE_INTERVAL_MS);
+        newSession.setServerAliveCountMax(KEEP_ALIVE_COUNT_MAX);
+        newSession.setDaemonThread(true);
+        newSession.connect();
+
+        try {
+            ChannelSftp channel = (ChannelSftp)newSession.openChannel("sftp");
+            channel.connect();
+            sftp = channel;
+        } catch (JSchException e) {
+            newSession.disconnect();
+            throw e;
+        }
+
+        session = newSession;
+        sessionHost = host;
+        sessionPasswordDigest = digest(password);
+        lastSessionNanos = System.nanoTime() - startTime;
+    }
+
+    private void upload(String token) throws SftpException {
+        long startTime = System.nanoTime();
+        sftp.put(new ByteArrayInputStream(token.getBytes(StandardCharsets.UTF_8)), TOKEN_PATH);
+        lastUploadNanos = System.nanoTime() - startTime;
+    }
+}
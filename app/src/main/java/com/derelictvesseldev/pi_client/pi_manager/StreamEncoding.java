@@ -0,0 +1,15 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+// What the server sends on the monitor stream. JPEG frames are decoded to tiles; H.264 and H.265
+// go to MediaCodec and render straight to the video surface.
+public enum StreamEncoding {
+    JPEG("jpeg"),
+    H264("h264"),
+    H265("h265");
+
+    final String commandName;
+
+    StreamEncoding(String commandName) {
+        this.commandName = commandName;
+    }
+}
@@ -0,0 +1,87 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+
+// The last decoded bitmap of every tile, keyed by a hash of its JPEG bytes. Tiles the server
+// marks unchanged (zero length) or resends byte-for-byte reuse that bitmap instead of being
+// decoded again. Every decode gets a new version number, so consumers can tell which tiles
+// actually changed. Only used on the decode thread.
+class TileCache {
+    static final long UNCHANGED = 0;
+    private static final long MULTIPLIER_1 = 0x9E3779B97F4A7C15L;
+    private static final long MULTIPLIER_2 = 0xC2B2AE3D27D4EB4FL;
+
+    private final BitmapPool bitmapPool;
+    private final Bitmap[] bitmaps;
+    private final long[] hashes;
+    private final long[] versions;
+    private long nextVersion = 1;
+
+    TileCache(BitmapPool bitmapPool, int maxTiles) {
+        this.bitmapPool = bitmapPool;
+        bitmaps = new Bitmap[maxTiles];
+        hashes = new long[maxTiles];
+        versions = new long[maxTiles];
+    }
+
+    // 64-bit multiply-rotate hash of length bytes of frame's payload from offset, read in place
+    // eight at a time so ring frames hash without a copy (CRC32 only takes a ByteBuffer from
+    // API 26). An empty tile hashes to UNCHANGED, and nothing else does.
+    long hash(FrameBuffer frame, int offset, int length) {
+        if (length == 0) {
+            return UNCHANGED;
+        }
+
+        ByteBuffer data = frame.memory;
+        int position = frame.offset + offset;
+        int end = position + length;
+        long hash = length * MULTIPLIER_1;
+        for (; position <= end - 8; position += 8) {
+            hash = Long.rotateLeft(hash ^ data.getLong(position) * MULTIPLIER_2, 31) *
+                    MULTIPLIER_1;
+        }
+        for (; position < end; position++) {
+            hash = Long.rotateLeft(hash ^ (data.get(position) & 0xFF) * MULTIPLIER_2, 11) *
+                    MULTIPLIER_1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= MULTIPLIER_2;
+        hash ^= hash >>> 29;
+        return hash != UNCHANGED ? hash : 1;
+    }
+
+    boolean contains(int tile, long hash) {
+        return bitmaps[tile] != null && (hash == UNCHANGED || hash == hashes[tile]);
+    }
+
+    // The cached bitmap, retained on behalf of the caller's frame.
+    Bitmap reuse(int tile) {
+        Bitmap bitmap = bitmaps[tile];
+        bitmapPool.retain(bitmap);
+        return bitmap;
+    }
+
+    // bitmap is owned by the caller's frame; the cache takes its own hold on it.
+    void update(int tile, long hash, Bitmap bitmap) {
+        bitmapPool.release(bitmaps[tile]);
+        bitmapPool.retain(bitmap);
+        bitmaps[tile] = bitmap;
+        hashes[tile] = hash;
+        versions[tile] = nextVersion++;
+    }
+
+    long getVersion(int tile) {
+        return versions[tile];
+    }
+
+    void clear() {
+        for (int i = 0; i < bitmaps.length; i++) {
+            bitmapPool.release(bitmaps[i]);
+            bitmaps[i] = null;
+            versions[i] = 0;
+        }
+    }
+}
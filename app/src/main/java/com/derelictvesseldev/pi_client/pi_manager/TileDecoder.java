@@ -0,0 +1,193 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+class TileDecoder {
+    private class TileTask implements Runnable {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        FrameBuffer frame;
+        int offset;
+        int length;
+        Bitmap result;
+        // BitmapFactory only reads Java arrays, so tiles in a receive ring are copied out first.
+        private byte[] scratch = new byte[0];
+        private ByteBuffer view;
+
+        void decode() {
+            long startTime = System.nanoTime();
+            try {
+                result = null;
+                if (nativeDecodeEnabled) {
+                    result = frame.data != null ?
+                            NativeJpegDecoder.decode(frame.data, offset, length, bitmapPool) :
+                            NativeJpegDecoder.decode(frame.memory, frame.offset + offset, length,
+                                    bitmapPool);
+                    if (result != null) {
+                        nativeTiles.incrementAndGet();
+                    }
+                }
+
+                if (result == null) {
+                    result = frame.data != null ?
+                            bitmapPool.decode(frame.data, offset, length, options) :
+                            bitmapPool.decode(copyOut(), 0, length, options);
+                    bitmapFactoryTiles.incrementAndGet();
+                }
+            }
+            catch (RuntimeException e) {
+                e.printStackTrace();
+                result = null;
+            }
+            frame = null;
+            long elapsed = System.nanoTime() - startTime;
+            decodeNanos.addAndGet(elapsed);
+            metrics.record(PipelineStage.TILE_DECODE, elapsed);
+        }
+
+        // Tiles of one frame decode in parallel, so each task reads through its own view.
+        private byte[] copyOut() {
+            if (scratch.length < length) {
+                scratch = new byte[length + (length >> 1)];
+            }
+            if (view == null) {
+                view = frame.memory.duplicate();
+            }
+
+            int position = frame.offset + offset;
+            view.limit(position + length).position(position);
+            view.get(scratch, 0, length);
+            view.clear();
+            return scratch;
+        }
+
+        @Override
+        public void run() {
+            decode();
+            completed.release();
+        }
+    }
+
+    private final BitmapPool bitmapPool;
+    private final PipelineMetrics metrics;
+    private final Executor decodeExecutor;
+    // Null when the workers are shared with other decoders and outlive this one.
+    private final ExecutorService ownedExecutor;
+    private final TileTask[] tasks;
+    private final TileTask[] scheduledTasks;
+    private final Semaphore completed = new Semaphore(0);
+    private final AtomicLong nativeTiles = new AtomicLong();
+    private final AtomicLong bitmapFactoryTiles = new AtomicLong();
+    private final AtomicLong decodeNanos = new AtomicLong();
+    private volatile boolean nativeDecodeEnabled;
+
+    TileDecoder(BitmapPool bitmapPool, int maxTiles, PipelineMetrics metrics) {
+        this(bitmapPool, maxTiles, metrics, null);
+    }
+
+    TileDecoder(BitmapPool bitmapPool, int maxTiles, PipelineMetrics metrics,
+                Executor sharedExecutor) {
+        this.bitmapPool = bitmapPool;
+        this.metrics = metrics;
+
+        tasks = new TileTask[maxTiles];
+        scheduledTasks = new TileTask[maxTiles];
+        for (int i = 0; i < maxTiles; i++) {
+            tasks[i] = new TileTask();
+        }
+
+        if (sharedExecutor != null) {
+            decodeExecutor = sharedExecutor;
+            ownedExecutor = null;
+            return;
+        }
+
+        // The calling thread decodes one tile itself, so one fewer worker than tiles is enough.
+        ownedExecutor = Executors.newFixedThreadPool(workerCount(maxTiles),
+                PiThreads.threadFactory("PiTileDecode", Process.THREAD_PRIORITY_DISPLAY));
+        decodeExecutor = ownedExecutor;
+    }
+
+    static int workerCount(int maxTiles) {
+        return Math.max(1, Math.min(maxTiles - 1,
+                Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    // Decodes the tiles the parser found in frame and tileMask selects (bit i for tile i) in
+    // parallel, and returns once all of them are done. Other tiles were only stepped over by their
+    // length prefix. Tiles that are unselected, missing or fail to decode are left null.
+    void decodeTiles(FrameBuffer frame, FrameParser frameParser, Bitmap[] tiles, int tileMask)
+            throws InterruptedException {
+        int tileCount = tiles.length;
+        int parsed = frameParser.tileCount;
+
+        int scheduled = 0;
+        for (int i = 0; i < parsed; i++) {
+            TileTask task = tasks[i];
+            task.result = null;
+            if ((tileMask & (1 << i)) == 0) {
+                continue;
+            }
+
+            task.frame = frame;
+            task.offset = frameParser.tileOffsets[i];
+            task.length = frameParser.tileLengths[i];
+            scheduledTasks[scheduled++] = task;
+        }
+
+        for (int i = 1; i < scheduled; i++) {
+            decodeExecutor.execute(scheduledTasks[i]);
+        }
+
+        if (scheduled > 0) {
+            scheduledTasks[0].decode();
+        }
+
+        // Per-frame barrier: the composite needs every selected tile.
+        if (scheduled > 1) {
+            completed.acquire(scheduled - 1);
+        }
+
+        for (int i = 0; i < tileCount; i++) {
+            tiles[i] = i < parsed ? tasks[i].result : null;
+            tasks[i].result = null;
+        }
+    }
+
+    // Decodes length bytes of frame's payload from offset on the calling thread, or returns null
+    // if that fails.
+    Bitmap decodeTile(FrameBuffer frame, int offset, int length) {
+        TileTask task = tasks[0];
+        task.frame = frame;
+        task.offset = offset;
+        task.length = length;
+        task.decode();
+        Bitmap result = task.result;
+        task.result = null;
+        return result;
+    }
+
+    // Returns whether the native path is actually in use; BitmapFactory remains the fallback.
+    boolean setNativeDecodeEnabled(boolean enabled) {
+        nativeDecodeEnabled = enabled && NativeJpegDecoder.isAvailable();
+        return nativeDecodeEnabled;
+    }
+
+    DecodeStats getDecodeStats() {
+        return new DecodeStats(nativeTiles.get(), bitmapFactoryTiles.get(), decodeNanos.get());
+    }
+
+    void shutdown() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdownNow();
+        }
+    }
+}
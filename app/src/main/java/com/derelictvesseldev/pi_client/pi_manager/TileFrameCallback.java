@@ -0,0 +1,6 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+public interface TileFrameCallback {
+    // The frame stays valid until the next onFrame call; its tiles are recycled after that.
+    void onFrame(Frame frame);
+}
@@ -0,0 +1,196 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Feeds Annex B access units to a hardware MediaCodec decoder that renders directly to a
+// Surface. The codec is created on the first key frame that carries parameter sets; after any
+// dropped access unit, input is skipped until the next key frame so the decoder never sees a
+// broken reference chain. Only ever used from one thread.
+class VideoDecoder {
+    private static final long INPUT_TIMEOUT_US = 10_000;
+    private static final int DEFAULT_WIDTH = 1920;
+    private static final int DEFAULT_HEIGHT = 1080;
+    private static final int MAX_PARAMETER_SETS_SIZE = 4096;
+
+    private final NalUnitReader nalUnitReader = new NalUnitReader(64);
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+    private final ByteBuffer parameterSets = ByteBuffer.allocate(MAX_PARAMETER_SETS_SIZE);
+    private MediaCodec codec;
+    private int codecType = -1;
+    private Surface surface;
+    private boolean awaitingKeyFrame = true;
+    // Units queued to the current codec and not rendered yet; a codec may also skip some.
+    private int pendingOutputs;
+
+    void setSurface(Surface surface) {
+        if (surface == this.surface) {
+            return;
+        }
+
+        this.surface = surface;
+        if (codec == null) {
+            return;
+        }
+
+        if (surface != null) {
+            codec.setOutputSurface(surface);
+        }
+        else {
+            release();
+        }
+    }
+
+    boolean hasSurface() {
+        return surface != null;
+    }
+
+    // Returns false if the access unit was skipped; the caller should ask the server for a key
+    // frame when that happens while one is awaited.
+    boolean decode(byte[] data, int offset, int length, int codecType, int width, int height,
+                   long presentationTimeUs) throws IOException {
+        if (surface == null) {
+            return false;
+        }
+
+        if (codecType != this.codecType) {
+            release();
+            this.codecType = codecType;
+        }
+
+        nalUnitReader.read(data, offset, length, codecType);
+        boolean keyFrame = nalUnitReader.hasKeyFrame();
+        if (awaitingKeyFrame) {
+            if (!keyFrame || (codec == null && !nalUnitReader.hasParameterSets())) {
+                return false;
+            }
+        }
+
+        if (!queueAccessUnit(data, offset, length, codecType, width, height, presentationTimeUs,
+                keyFrame)) {
+            // The decoder is behind; everything up to the next key frame depends on this unit.
+            awaitingKeyFrame = true;
+            return false;
+        }
+
+        awaitingKeyFrame = false;
+        pendingOutputs++;
+        return true;
+    }
+
+    // Hands the access unit nalUnitReader has just split to the codec, creating it if needed.
+    // Returns false if the codec had no room for it.
+    boolean queueAccessUnit(byte[] data, int offset, int length, int codecType, int width,
+                            int height, long presentationTimeUs, boolean keyFrame)
+            throws IOException {
+        if (codec == null) {
+            codec = createCodec(codecType, width, height, length);
+        }
+
+        if (nalUnitReader.hasParameterSets()) {
+            parameterSets.clear();
+            int size = nalUnitReader.writeParameterSets(data, parameterSets);
+            if (!queueInput(parameterSets.array(), 0, size, presentationTimeUs,
+                    MediaCodec.BUFFER_FLAG_CODEC_CONFIG)) {
+                return false;
+            }
+        }
+
+        return queueInput(data, offset, length, presentationTimeUs,
+                keyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+    }
+
+    // Releases every decoded frame to the surface; returns how many were rendered.
+    int render() {
+        if (codec == null) {
+            return 0;
+        }
+
+        int rendered = 0;
+        while (true) {
+            int index = codec.dequeueOutputBuffer(bufferInfo, 0);
+            if (index >= 0) {
+                codec.releaseOutputBuffer(index, true);
+                rendered++;
+            }
+            else if (index != MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                pendingOutputs = Math.max(0, pendingOutputs - rendered);
+                return rendered;
+            }
+        }
+    }
+
+    boolean hasPendingOutput() {
+        return pendingOutputs > 0;
+    }
+
+    boolean isAwaitingKeyFrame() {
+        return awaitingKeyFrame;
+    }
+
+    // Input was dropped before it got here; skip everything up to the next key frame.
+    void awaitKeyFrame() {
+        awaitingKeyFrame = true;
+    }
+
+    // Drop any codec state; decoding restarts at the next key frame with parameter sets.
+    void release() {
+        awaitingKeyFrame = true;
+        pendingOutputs = 0;
+        if (codec == null) {
+            return;
+        }
+
+        try {
+            codec.stop();
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+        }
+        codec.release();
+        codec = null;
+    }
+
+    private boolean queueInput(byte[] data, int offset, int length, long presentationTimeUs,
+                               int flags) {
+        int index = codec.dequeueInputBuffer(INPUT_TIMEOUT_US);
+        if (index < 0) {
+            return false;
+        }
+
+        ByteBuffer input = codec.getInputBuffer(index);
+        if (input == null || input.capacity() < length) {
+            codec.queueInputBuffer(index, 0, 0, presentationTimeUs, 0);
+            return false;
+        }
+
+        input.clear();
+        input.put(data, offset, length);
+        codec.queueInputBuffer(index, 0, length, presentationTimeUs, flags);
+        return true;
+    }
+
+    private MediaCodec createCodec(int codecType, int width, int height, int inputSize)
+            throws IOException {
+        String mime = codecType == NalUnitReader.CODEC_H265 ? MediaFormat.MIMETYPE_VIDEO_HEVC :
+                MediaFormat.MIMETYPE_VIDEO_AVC;
+        MediaFormat format = MediaFormat.createVideoFormat(mime,
+                width > 0 ? width : DEFAULT_WIDTH, height > 0 ? height : DEFAULT_HEIGHT);
+        // Key frames are the largest units; leave room for them to grow.
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, Math.max(inputSize * 2, 1024 * 1024));
+        format.setInteger(MediaFormat.KEY_LOW_LATENCY, 1);
+
+        MediaCodec mediaCodec = MediaCodec.createDecoderByType(mime);
+        try {
+            mediaCodec.configure(format, surface, null, 0);
+            mediaCodec.start();
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            mediaCodec.release();
+            throw new IOException("Could not start " + mime + " decoder", e);
+        }
+        return mediaCodec;
+    }
+}
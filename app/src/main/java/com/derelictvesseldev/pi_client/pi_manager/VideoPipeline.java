@@ -0,0 +1,230 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.LockSupport;
+
+// Receive -> MediaCodec -> Surface for H.264/H.265 frames. Unlike JPEG frames, every access unit
+// is needed to decode the ones after it, so instead of a latest-wins mailbox frames queue up to
+// a bound. On overflow the backlog is dropped and decoding resumes at the next key frame, which
+// is requested from the server.
+class VideoPipeline {
+    private static final int MAX_QUEUED_FRAMES = 8;
+    private static final long KEY_FRAME_REQUEST_INTERVAL_MS = 1000;
+    private static final long OUTPUT_POLL_NANOS = 2_000_000;
+    // Output follows its input within a few frame times; output that never comes must not keep
+    // the thread polling.
+    private static final long OUTPUT_POLL_WINDOW_NANOS = 200_000_000;
+
+    private final FrameBufferPool frameBufferPool;
+    private final PipelineMetrics metrics;
+    private final VideoDecoder videoDecoder;
+    private final FrameParser frameParser = new FrameParser(1);
+    private final ArrayDeque<FrameBuffer> queue = new ArrayDeque<>();
+    private volatile Thread decodeThread;
+    private Thread stoppedThread;
+    private volatile Surface surface;
+    private volatile Runnable keyFrameRequestListener;
+    private long lastKeyFrameRequestTime;
+    private long lastInputTime;
+    // Set when queued frames were dropped; the decode thread has to wait for a key frame.
+    // Guarded by queue.
+    private boolean resyncNeeded;
+    private volatile long droppedCount;
+    private volatile long decodedCount;
+    private volatile long renderedCount;
+
+    VideoPipeline(FrameBufferPool frameBufferPool, PipelineMetrics metrics) {
+        this(frameBufferPool, metrics, new VideoDecoder());
+    }
+
+    VideoPipeline(FrameBufferPool frameBufferPool, PipelineMetrics metrics,
+                  VideoDecoder videoDecoder) {
+        this.frameBufferPool = frameBufferPool;
+        this.metrics = metrics;
+        this.videoDecoder = videoDecoder;
+    }
+
+    synchronized void start() {
+        if (decodeThread != null) {
+            return;
+        }
+
+        PiThreads.join(stoppedThread);
+        stoppedThread = null;
+
+        decodeThread = PiThreads.newThread("PiVideoDecode", Process.THREAD_PRIORITY_DISPLAY,
+                this::decodeLoop);
+        decodeThread.start();
+    }
+
+    synchronized void stop() {
+        Thread thread = decodeThread;
+        if (thread == null) {
+            return;
+        }
+
+        decodeThread = null;
+        stoppedThread = thread;
+        LockSupport.unpark(thread);
+        releaseQueued();
+    }
+
+    // Stops decoding and waits for the decode thread, which releases the codec on its way out.
+    synchronized void shutdown() {
+        stop();
+        PiThreads.join(stoppedThread);
+        stoppedThread = null;
+    }
+
+    // Frames arriving while there is no surface are dropped.
+    void setSurface(Surface surface) {
+        this.surface = surface;
+        Thread thread = decodeThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // Runs on the decode thread whenever the decoder needs a key frame to resume.
+    void setKeyFrameRequestListener(Runnable listener) {
+        keyFrameRequestListener = listener;
+    }
+
+    // Called on the monitor reader thread; takes ownership of frame.
+    void offer(FrameBuffer frame) {
+        Thread thread = decodeThread;
+        if (thread == null || surface == null) {
+            droppedCount++;
+            frameBufferPool.release(frame);
+            return;
+        }
+
+        synchronized (queue) {
+            if (queue.size() >= MAX_QUEUED_FRAMES) {
+                // Too far behind: skip to the next key frame rather than lag further.
+                droppedCount += queue.size();
+                FrameBuffer queued;
+                while ((queued = queue.pollFirst()) != null) {
+                    frameBufferPool.release(queued);
+                }
+                resyncNeeded = true;
+            }
+            queue.addLast(frame);
+        }
+        LockSupport.unpark(thread);
+    }
+
+    long getDroppedCount() {
+        return droppedCount;
+    }
+
+    long getDecodedCount() {
+        return decodedCount;
+    }
+
+    long getRenderedCount() {
+        return renderedCount;
+    }
+
+    private void decodeLoop() {
+        Thread self = Thread.currentThread();
+        while (decodeThread == self) {
+            videoDecoder.setSurface(surface);
+
+            FrameBuffer buffer;
+            boolean resync;
+            synchronized (queue) {
+                buffer = queue.pollFirst();
+                resync = resyncNeeded;
+                resyncNeeded = false;
+            }
+            if (resync) {
+                // Frames after the dropped ones reference them; none may reach the codec.
+                videoDecoder.awaitKeyFrame();
+                requestKeyFrameIfAwaiting();
+            }
+            if (buffer == null) {
+                // Decoded output can lag the last input; poll for it for a short while.
+                renderDecoded();
+                if (videoDecoder.hasPendingOutput() &&
+                        System.nanoTime() - lastInputTime < OUTPUT_POLL_WINDOW_NANOS) {
+                    LockSupport.parkNanos(this, OUTPUT_POLL_NANOS);
+                }
+                else {
+                    LockSupport.park(this);
+                }
+                continue;
+            }
+
+            long decodeStart = System.nanoTime();
+            boolean queued = false;
+            try {
+                queued = decode(buffer);
+            } catch (IOException e) {
+                e.printStackTrace();
+                videoDecoder.release();
+            } finally {
+                frameBufferPool.release(buffer);
+            }
+
+            if (queued) {
+                decodedCount++;
+                lastInputTime = decodeStart;
+                metrics.record(PipelineStage.DECODE, System.nanoTime() - decodeStart);
+            }
+            else {
+                droppedCount++;
+                requestKeyFrameIfAwaiting();
+            }
+            renderDecoded();
+        }
+
+        videoDecoder.release();
+        videoDecoder.setSurface(null);
+    }
+
+    private boolean decode(FrameBuffer buffer) throws IOException {
+        // Frames reach this queue on the heap; see FramePipeline.onFrame.
+        if (frameParser.parse(buffer) != 1) {
+            return false;
+        }
+
+        int codecType = frameParser.encoding == FrameParser.ENCODING_H265 ?
+                NalUnitReader.CODEC_H265 : NalUnitReader.CODEC_H264;
+        return videoDecoder.decode(buffer.data, frameParser.tileOffsets[0],
+                frameParser.tileLengths[0], codecType, frameParser.tileWidth,
+                frameParser.tileHeight, frameParser.timestampMicros);
+    }
+
+    private void renderDecoded() {
+        int rendered = videoDecoder.render();
+        renderedCount += rendered;
+        for (int i = 0; i < rendered; i++) {
+            metrics.onDisplayed();
+        }
+    }
+
+    private void requestKeyFrameIfAwaiting() {
+        Runnable listener = keyFrameRequestListener;
+        long now = SystemClock.elapsedRealtime();
+        if (listener != null && videoDecoder.isAwaitingKeyFrame() &&
+                now - lastKeyFrameRequestTime >= KEY_FRAME_REQUEST_INTERVAL_MS) {
+            lastKeyFrameRequestTime = now;
+            listener.run();
+        }
+    }
+
+    private void releaseQueued() {
+        synchronized (queue) {
+            FrameBuffer queued;
+            while ((queued = queue.pollFirst()) != null) {
+                frameBufferPool.release(queued);
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BackoffTest {
+    @Test
+    public void delaysStayWithinGrowingCap() {
+        Backoff backoff = new Backoff(100, 1600, new Random(1));
+        long[] caps = { 100, 200, 400, 800, 1600, 1600, 1600 };
+
+        for (long cap : caps) {
+            long delay = backoff.nextDelayMillis();
+            assertTrue(delay >= 0 && delay < cap);
+        }
+    }
+
+    @Test
+    public void resetStartsOverFromBase() {
+        Backoff backoff = new Backoff(100, 10000, new Random(2));
+        for (int i = 0; i < 10; i++) {
+            backoff.nextDelayMillis();
+        }
+
+        backoff.reset();
+        assertTrue(backoff.nextDelayMillis() < 100);
+    }
+
+    @Test
+    public void jittersDelays() {
+        Backoff backoff = new Backoff(1000, 1000, new Random(3));
+        long first = backoff.nextDelayMillis();
+        boolean varied = false;
+        for (int i = 0; i < 10; i++) {
+            varied |= backoff.nextDelayMillis() != first;
+        }
+
+        assertTrue(varied);
+    }
+}
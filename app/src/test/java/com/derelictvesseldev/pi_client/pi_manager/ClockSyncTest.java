@@ -0,0 +1,44 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClockSyncTest {
+    private final ClockSync clockSync = new ClockSync();
+
+    @Test
+    public void computesOffsetFromSymmetricExchange() {
+        // Server clock 1000 us ahead, 100 us each way, 20 us spent on the server.
+        assertTrue(clockSync.onReply("time 5000 6100 6120", 5220 * 1000));
+        assertTrue(clockSync.isSynchronized());
+        assertEquals(1000, clockSync.getOffsetMicros());
+        assertEquals(200, clockSync.getRoundTripMicros());
+        assertEquals(7000 * 1000, clockSync.toClientNanos(8000));
+    }
+
+    @Test
+    public void prefersShortestRoundTrip() {
+        clockSync.onReply("time 5000 6100 6120", 5220 * 1000);
+        // Delayed 800 us on the way back, which skews this sample's offset by 400 us.
+        clockSync.onReply("time 10000 11100 11120", 11020 * 1000);
+        assertEquals(1000, clockSync.getOffsetMicros());
+        assertEquals(200, clockSync.getRoundTripMicros());
+    }
+
+    @Test
+    public void ignoresOtherReplies() {
+        assertFalse(clockSync.onReply("pong", 1000));
+        assertFalse(clockSync.onReply("time 1 x 3", 1000));
+        assertFalse(clockSync.onReply("time 5000 6000 6000", 4000 * 1000));
+        assertFalse(clockSync.isSynchronized());
+    }
+
+    @Test
+    public void resetForgetsSamples() {
+        clockSync.onReply("time 5000 6100 6120", 5220 * 1000);
+        clockSync.reset();
+        assertFalse(clockSync.isSynchronized());
+        assertEquals(-1, clockSync.getRoundTripMicros());
+    }
+}
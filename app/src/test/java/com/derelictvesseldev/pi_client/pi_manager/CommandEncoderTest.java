@@ -0,0 +1,47 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CommandEncoderTest {
+    @Test
+    public void framesCommandsBackToBack() {
+        CommandEncoder encoder = new CommandEncoder(4);
+        encoder.append("mode");
+        encoder.append("fps 15");
+
+        byte[] expected = FrameDecoderTest.concat(FrameDecoderTest.header(4), ascii("mode"),
+                FrameDecoderTest.header(6), ascii("fps 15"));
+        assertArrayEquals(expected, Arrays.copyOf(encoder.getBuffer(), encoder.getLength()));
+    }
+
+    @Test
+    public void encodesNonAsciiAsUtf8() {
+        CommandEncoder encoder = new CommandEncoder(16);
+        encoder.append("x\u00e9y");
+
+        byte[] text = "x\u00e9y".getBytes(StandardCharsets.UTF_8);
+        byte[] expected = FrameDecoderTest.concat(FrameDecoderTest.header(text.length), text);
+        assertArrayEquals(expected, Arrays.copyOf(encoder.getBuffer(), encoder.getLength()));
+    }
+
+    @Test
+    public void resetReusesBuffer() {
+        CommandEncoder encoder = new CommandEncoder(64);
+        byte[] buffer = encoder.getBuffer();
+        encoder.append("mode");
+        encoder.reset();
+        encoder.append("mode");
+
+        assertSame(buffer, encoder.getBuffer());
+        assertEquals(8, encoder.getLength());
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
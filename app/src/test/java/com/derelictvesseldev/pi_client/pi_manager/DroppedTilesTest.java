@@ -0,0 +1,69 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import org.junit.Test;
+
+import static com.derelictvesseldev.pi_client.pi_manager.FrameDecoderTest.concat;
+import static com.derelictvesseldev.pi_client.pi_manager.FrameDecoderTest.frame;
+import static org.junit.Assert.*;
+
+public class DroppedTilesTest {
+    private final DroppedTiles droppedTiles = new DroppedTiles(4);
+
+    @Test
+    public void keepsNewestCopyOfEachTile() {
+        droppedTiles.salvage(buffer(concat(frame(10, 1), frame(0, 0), frame(0, 0), frame(0, 0))));
+        droppedTiles.salvage(buffer(concat(frame(0, 0), frame(20, 2), frame(0, 0), frame(0, 0))));
+        droppedTiles.salvage(buffer(concat(frame(5, 3), frame(0, 0), frame(0, 0), frame(0, 0))));
+
+        assertTrue(droppedTiles.has(0));
+        assertTrue(droppedTiles.has(1));
+        assertFalse(droppedTiles.has(2));
+
+        FrameBuffer tile = droppedTiles.take(0, new FrameBuffer(0));
+        byte[] expected = frame(5, 3);
+        assertEquals(5, tile.length);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(expected[FrameParser.LENGTH_SIZE + i], tile.data[i]);
+        }
+        assertFalse(droppedTiles.has(0));
+    }
+
+    @Test
+    public void discardDropsStaleTile() {
+        droppedTiles.salvage(buffer(concat(frame(10, 1), frame(10, 1), frame(0, 0), frame(0, 0)),
+                1));
+        droppedTiles.discardOlderThan(1, 2);
+        assertTrue(droppedTiles.has(0));
+        assertFalse(droppedTiles.has(1));
+
+        droppedTiles.clear();
+        assertFalse(droppedTiles.has(0));
+    }
+
+    @Test
+    public void keepsTileSalvagedWhileOlderFrameDecodes() {
+        // Frame 1 is taken for decoding; frame 3 pushes frame 2 out of the mailbox before the
+        // decode thread gets to discarding what frame 1 made stale.
+        droppedTiles.salvage(buffer(concat(frame(10, 2), frame(0, 0), frame(0, 0), frame(0, 0)),
+                2));
+        droppedTiles.discardOlderThan(0, 1);
+        assertTrue(droppedTiles.has(0));
+
+        // Frame 3 marks the tile unchanged, so frame 2's copy is what it should show.
+        FrameBuffer tile = droppedTiles.take(0, new FrameBuffer(0));
+        assertEquals(10, tile.length);
+        assertEquals(frame(10, 2)[FrameParser.LENGTH_SIZE], tile.data[0]);
+    }
+
+    private static FrameBuffer buffer(byte[] data) {
+        return buffer(data, 0);
+    }
+
+    private static FrameBuffer buffer(byte[] data, long arrival) {
+        FrameBuffer buffer = new FrameBuffer(data.length);
+        System.arraycopy(data, 0, buffer.data, 0, data.length);
+        buffer.length = data.length;
+        buffer.arrival = arrival;
+        return buffer;
+    }
+}
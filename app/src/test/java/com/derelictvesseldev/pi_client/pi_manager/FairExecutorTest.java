@@ -0,0 +1,61 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FairExecutorTest {
+    private final FairExecutor executor = new FairExecutor(1, Thread::new);
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void alternatesBetweenLanes() throws InterruptedException {
+        FairExecutor.Lane blocker = executor.newLane();
+        FairExecutor.Lane busy = executor.newLane();
+        FairExecutor.Lane quiet = executor.newLane();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+        List<String> order = new ArrayList<>();
+
+        // Hold the only worker until both lanes have queued their work.
+        blocker.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        for (String name : new String[] {"a1", "a2", "a3"}) {
+            busy.execute(() -> {
+                order.add(name);
+                done.countDown();
+            });
+        }
+        quiet.execute(() -> {
+            order.add("b1");
+            done.countDown();
+        });
+        release.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("a1", "b1", "a2", "a3"), order);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsWorkAfterShutdown() {
+        FairExecutor.Lane lane = executor.newLane();
+        executor.shutdown();
+        lane.execute(() -> { });
+    }
+}
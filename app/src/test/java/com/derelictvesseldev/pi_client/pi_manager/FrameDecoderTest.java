@@ -0,0 +1,118 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameDecoderTest {
+    private final FrameBufferPool pool = new FrameBufferPool(4);
+    private final List<byte[]> frames = new ArrayList<>();
+    private final FrameDecoder decoder = new FrameDecoder(pool, frame -> {
+        byte[] copy = new byte[frame.length];
+        System.arraycopy(frame.data, 0, copy, 0, frame.length);
+        frames.add(copy);
+        pool.release(frame);
+    });
+
+    @Test
+    public void decodesWholeFrames() throws IOException {
+        byte[] stream = concat(frame(10, 1), frame(20, 2));
+        decoder.decode(ByteBuffer.wrap(stream));
+
+        assertEquals(2, frames.size());
+        assertArrayEquals(payload(10, 1), frames.get(0));
+        assertArrayEquals(payload(20, 2), frames.get(1));
+    }
+
+    @Test
+    public void decodesFramesSplitAtEveryByte() throws IOException {
+        byte[] stream = concat(frame(7, 3), frame(0, 0), frame(300, 4));
+        for (byte b : stream) {
+            decoder.decode(ByteBuffer.wrap(new byte[] { b }));
+        }
+
+        assertEquals(3, frames.size());
+        assertArrayEquals(payload(7, 3), frames.get(0));
+        assertEquals(0, frames.get(1).length);
+        assertArrayEquals(payload(300, 4), frames.get(2));
+    }
+
+    @Test
+    public void decodesHeaderSplitAcrossReads() throws IOException {
+        byte[] stream = frame(100, 5);
+        decoder.decode(ByteBuffer.wrap(stream, 0, 2));
+        assertEquals(0, frames.size());
+        decoder.decode(ByteBuffer.wrap(stream, 2, stream.length - 2));
+
+        assertEquals(1, frames.size());
+        assertArrayEquals(payload(100, 5), frames.get(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNegativeFrameSize() throws IOException {
+        decoder.decode(ByteBuffer.wrap(header(-1)));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOversizedFrame() throws IOException {
+        decoder.decode(ByteBuffer.wrap(header(FrameDecoder.MAX_FRAME_SIZE + 1)));
+    }
+
+    @Test
+    public void resetDiscardsPartialFrame() throws IOException {
+        byte[] partial = frame(50, 6);
+        decoder.decode(ByteBuffer.wrap(partial, 0, 20));
+        decoder.reset();
+        decoder.decode(ByteBuffer.wrap(frame(5, 7)));
+
+        assertEquals(1, frames.size());
+        assertArrayEquals(payload(5, 7), frames.get(0));
+    }
+
+    @Test
+    public void reusesPooledBuffersInSteadyState() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            decoder.decode(ByteBuffer.wrap(frame(1000, i)));
+        }
+
+        assertEquals(100, frames.size());
+        assertEquals(1, pool.getAllocationCount());
+    }
+
+    static byte[] header(int length) {
+        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(length).array();
+    }
+
+    static byte[] payload(int length, int seed) {
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte)(seed + i);
+        }
+        return payload;
+    }
+
+    static byte[] frame(int length, int seed) {
+        return concat(header(length), payload(length, seed));
+    }
+
+    static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,162 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static com.derelictvesseldev.pi_client.pi_manager.FrameDecoderTest.concat;
+import static com.derelictvesseldev.pi_client.pi_manager.FrameDecoderTest.frame;
+import static org.junit.Assert.*;
+
+public class FrameParserTest {
+    private final FrameParser parser = new FrameParser(4);
+
+    @Test
+    public void parsesFourTiles() {
+        byte[] data = concat(frame(10, 0), frame(20, 0), frame(30, 0), frame(40, 0));
+
+        assertEquals(4, parser.parse(data, data.length));
+        assertEquals(4, parser.tileOffsets[0]);
+        assertEquals(10, parser.tileLengths[0]);
+        assertEquals(18, parser.tileOffsets[1]);
+        assertEquals(20, parser.tileLengths[1]);
+        assertEquals(42, parser.tileOffsets[2]);
+        assertEquals(76, parser.tileOffsets[3]);
+        assertEquals(40, parser.tileLengths[3]);
+    }
+
+    @Test
+    public void keepsEmptySlotsForUnsentTiles() {
+        byte[] data = concat(frame(0, 0), frame(20, 0), frame(0, 0), frame(0, 0));
+
+        assertEquals(4, parser.parse(data, data.length));
+        assertEquals(0, parser.tileLengths[0]);
+        assertEquals(8, parser.tileOffsets[1]);
+        assertEquals(20, parser.tileLengths[1]);
+        assertEquals(0, parser.tileLengths[3]);
+    }
+
+    @Test
+    public void stopsAtTruncatedTile() {
+        byte[] data = concat(frame(10, 0), frame(20, 0));
+
+        assertEquals(1, parser.parse(data, data.length - 1));
+        assertEquals(0, parser.parse(data, 3));
+    }
+
+    @Test
+    public void rejectsNegativeTileLength() {
+        byte[] data = concat(frame(10, 0), FrameDecoderTest.header(-5));
+
+        assertEquals(1, parser.parse(data, data.length));
+    }
+
+    @Test
+    public void legacyFramesGetFixedLayout() {
+        byte[] data = concat(frame(10, 0), frame(20, 0), frame(30, 0), frame(40, 0));
+        parser.parse(data, data.length);
+
+        assertEquals(0, parser.version);
+        assertEquals(FrameParser.LEGACY_TILE_COUNT, parser.frameTileCount);
+        assertEquals(1, parser.gridColumns);
+        assertEquals(FrameParser.NO_SEQUENCE, parser.sequence);
+        assertEquals(FrameParser.NO_SEQUENCE, FrameParser.readSequence(buffer(data)));
+    }
+
+    @Test
+    public void parsesVersionedHeader() {
+        FrameParser parser = new FrameParser(8);
+        byte[] data = concat(versionedHeader(FrameParser.HEADER_SIZE, 6, 3, 0xFFFFFFFE,
+                0x123456789AL), frame(10, 0), frame(20, 0), frame(30, 0), frame(40, 0),
+                frame(50, 0), frame(60, 0));
+
+        assertEquals(6, parser.parse(data, data.length));
+        assertEquals(1, parser.version);
+        assertEquals(6, parser.frameTileCount);
+        assertEquals(3, parser.gridColumns);
+        assertEquals(640, parser.tileWidth);
+        assertEquals(480, parser.tileHeight);
+        assertEquals(FrameParser.ENCODING_JPEG, parser.encoding);
+        assertEquals(0xFFFFFFFEL, parser.sequence);
+        assertEquals(0x123456789AL, parser.timestampMicros);
+        assertEquals(FrameParser.HEADER_SIZE + 4, parser.tileOffsets[0]);
+        assertEquals(60, parser.tileLengths[5]);
+        assertEquals(0xFFFFFFFEL, FrameParser.readSequence(buffer(data)));
+    }
+
+    @Test
+    public void parsesFramesInDirectMemory() {
+        byte[] data = concat(versionedHeader(FrameParser.HEADER_SIZE, 2, 2, 9, 1234),
+                frame(10, 0), frame(20, 0));
+        ByteBuffer memory = ByteBuffer.allocateDirect(100 + data.length);
+        memory.position(100);
+        memory.put(data);
+        FrameBuffer buffer = new FrameBuffer(null, memory);
+        buffer.offset = 100;
+        buffer.length = data.length;
+
+        assertEquals(2, parser.parse(buffer));
+        assertEquals(FrameParser.HEADER_SIZE + 4, parser.tileOffsets[0]);
+        assertEquals(20, parser.tileLengths[1]);
+        assertEquals(9, FrameParser.readSequence(buffer));
+        assertEquals(1234, FrameParser.readTimestampMicros(buffer));
+
+        byte[] tile = new byte[20];
+        buffer.copyTo(parser.tileOffsets[1], tile, 0, 20);
+        assertArrayEquals(Arrays.copyOfRange(data, parser.tileOffsets[1],
+                parser.tileOffsets[1] + 20), tile);
+    }
+
+    @Test
+    public void skipsFieldsFromNewerHeaders() {
+        byte[] header = concat(versionedHeader(FrameParser.HEADER_SIZE + 8, 1, 1, 7, 0),
+                new byte[8]);
+        byte[] data = concat(header, frame(10, 0));
+
+        assertEquals(1, parser.parse(data, data.length));
+        assertEquals(FrameParser.HEADER_SIZE + 12, parser.tileOffsets[0]);
+    }
+
+    @Test
+    public void rejectsTruncatedHeader() {
+        byte[] data = versionedHeader(FrameParser.HEADER_SIZE, 1, 1, 0, 0);
+
+        assertEquals(0, parser.parse(data, FrameParser.HEADER_SIZE - 1));
+        assertEquals(0, parser.frameTileCount);
+    }
+
+    @Test
+    public void readsLittleEndianLengths() {
+        byte[] bytes = { (byte)0x78, (byte)0x56, (byte)0x34, (byte)0x12, (byte)0xFF };
+
+        assertEquals(0x12345678, FrameParser.fromByteArray(bytes, 0));
+        assertEquals(0xFF123456, FrameParser.fromByteArray(bytes, 1));
+    }
+
+    private static FrameBuffer buffer(byte[] data) {
+        FrameBuffer buffer = new FrameBuffer(0);
+        buffer.setData(data);
+        buffer.length = data.length;
+        return buffer;
+    }
+
+    private static byte[] versionedHeader(int headerSize, int tileCount, int gridColumns,
+                                          int sequence, long timestampMicros) {
+        return ByteBuffer.allocate(FrameParser.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(FrameParser.MAGIC)
+                .put((byte)1)
+                .put((byte)headerSize)
+                .put((byte)tileCount)
+                .put((byte)gridColumns)
+                .putShort((short)640)
+                .putShort((short)480)
+                .put((byte)FrameParser.ENCODING_JPEG)
+                .put((byte)0)
+                .putShort((short)0)
+                .putInt(sequence)
+                .putLong(timestampMicros)
+                .array();
+    }
+}
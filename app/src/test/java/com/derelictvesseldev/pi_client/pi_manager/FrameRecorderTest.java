@@ -0,0 +1,135 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.derelictvesseldev.pi_client.pi_manager.FrameDecoderTest.payload;
+import static org.junit.Assert.*;
+
+public class FrameRecorderTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("recording", ".pirec").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        FrameRecorder.indexFile(file).delete();
+    }
+
+    private void record(int frames, long intervalNanos) throws IOException {
+        try (FrameRecorder recorder = new FrameRecorder(file)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < frames; i++) {
+                recorder.record(frame(i, start + i * intervalNanos));
+                // Keep the bounded queue from overflowing; the live path would just drop.
+                while (recorder.getRecordedFrames() + recorder.getDroppedFrames() < i + 1 - 8) {
+                    Thread.yield();
+                }
+            }
+        }
+    }
+
+    private static FrameBuffer frame(int seed, long headerTime) {
+        byte[] data = payload(1000 + seed * 37, seed);
+        FrameBuffer frame = new FrameBuffer(data.length);
+        System.arraycopy(data, 0, frame.data, 0, data.length);
+        frame.length = data.length;
+        frame.headerTime = headerTime;
+        return frame;
+    }
+
+    @Test
+    public void roundTripsFramesInWireFormat() throws IOException {
+        record(50, 10_000_000);
+
+        try (FrameRecording recording = new FrameRecording(file)) {
+            assertEquals(50, recording.getFrameCount());
+            FrameBuffer buffer = new FrameBuffer(64 * 1024);
+            for (int i = 0; i < 50; i++) {
+                recording.readFrame(i, buffer);
+                byte[] expected = payload(1000 + i * 37, i);
+                assertEquals(expected.length, buffer.length);
+                assertArrayEquals(expected, Arrays.copyOf(buffer.data, buffer.length));
+            }
+        }
+
+        // The data file is the raw MONITOR_PORT stream.
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        assertEquals(1000, FrameParser.fromByteArray(bytes, 0));
+    }
+
+    @Test
+    public void seeksByTimestamp() throws IOException {
+        record(20, 10_000_000);
+
+        try (FrameRecording recording = new FrameRecording(file)) {
+            long base = recording.getTimestampNanos(0);
+            assertEquals(10_000_000, recording.getTimestampNanos(1) - base);
+            assertEquals(0, recording.indexOfTimestamp(0));
+            assertEquals(5, recording.indexOfTimestamp(base + 50_000_000));
+            assertEquals(6, recording.indexOfTimestamp(base + 50_000_001));
+            assertEquals(20, recording.indexOfTimestamp(base + 1_000_000_000));
+        }
+    }
+
+    @Test
+    public void rebuildsMissingIndexAndIgnoresTruncatedTail() throws IOException {
+        record(10, 1_000_000);
+        assertTrue(FrameRecorder.indexFile(file).delete());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 100);
+        }
+
+        try (FrameRecording recording = new FrameRecording(file)) {
+            assertEquals(9, recording.getFrameCount());
+            FrameBuffer buffer = new FrameBuffer(64 * 1024);
+            recording.readFrame(8, buffer);
+            assertArrayEquals(payload(1000 + 8 * 37, 8), Arrays.copyOf(buffer.data, buffer.length));
+        }
+    }
+
+    @Test
+    public void replaysAtScaledPace() throws Exception {
+        record(10, 20_000_000);
+
+        List<Integer> lengths = new ArrayList<>();
+        CountDownLatch finished = new CountDownLatch(1);
+        FrameBufferPool pool = new FrameBufferPool(2);
+        try (FrameRecording recording = new FrameRecording(file)) {
+            FrameReplayer replayer = new FrameReplayer(recording, pool, frame -> {
+                lengths.add(frame.length);
+                pool.release(frame);
+            });
+
+            long start = System.nanoTime();
+            replayer.start(2, 2.0, error -> {
+                assertNull(error);
+                finished.countDown();
+            });
+            assertTrue(finished.await(2, TimeUnit.SECONDS));
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            replayer.stop();
+
+            // Frames 2..9 span 140 ms of recording, replayed at double speed.
+            assertEquals(8, lengths.size());
+            assertEquals(Integer.valueOf(1000 + 2 * 37), lengths.get(0));
+            assertTrue("replayed too fast: " + elapsedMillis, elapsedMillis >= 65);
+            assertTrue("replayed too slow: " + elapsedMillis, elapsedMillis < 1000);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.derelictvesseldev.pi_client.pi_manager.FrameDecoderTest.concat;
+import static com.derelictvesseldev.pi_client.pi_manager.FrameDecoderTest.frame;
+import static com.derelictvesseldev.pi_client.pi_manager.FrameDecoderTest.header;
+import static com.derelictvesseldev.pi_client.pi_manager.FrameDecoderTest.payload;
+import static org.junit.Assert.*;
+
+public class FrameRingTest {
+    private final List<FrameBuffer> frames = new ArrayList<>();
+
+    @Test
+    public void assemblesFramesFromFragments() throws Exception {
+        FrameRing ring = new FrameRing(1024, frames::add);
+        byte[] stream = concat(frame(10, 1), frame(20, 2));
+
+        for (byte b : stream) {
+            receive(ring, new byte[] { b });
+        }
+
+        assertEquals(2, frames.size());
+        assertPayload(payload(10, 1), frames.get(0));
+        assertPayload(payload(20, 2), frames.get(1));
+    }
+
+    @Test
+    public void movesFrameToStartWhenItWouldCrossTheEnd() throws Exception {
+        FrameRing ring = new FrameRing(100, frames::add);
+
+        receive(ring, frame(40, 1));
+        receive(ring, frame(40, 2));
+        release(0);
+        // Only 12 bytes remain before the end; the third frame continues from the start.
+        receive(ring, frame(30, 3));
+
+        assertEquals(3, frames.size());
+        assertEquals(FrameDecoder.HEADER_SIZE, frames.get(2).offset);
+        assertPayload(payload(40, 2), frames.get(1));
+        assertPayload(payload(30, 3), frames.get(2));
+    }
+
+    @Test
+    public void movesFrameOverlappingItsNewPlace() throws Exception {
+        FrameRing ring = new FrameRing(100, frames::add);
+
+        receive(ring, frame(10, 1));
+        release(0);
+        // Starts at 14 and needs 94 bytes, so its first 86 move onto themselves at the start.
+        receive(ring, frame(90, 2));
+
+        assertEquals(2, frames.size());
+        assertEquals(FrameDecoder.HEADER_SIZE, frames.get(1).offset);
+        assertPayload(payload(90, 2), frames.get(1));
+    }
+
+    @Test
+    public void waitsForOldestFrameBeforeReusingItsSpace() throws Exception {
+        FrameRing ring = new FrameRing(100, frames::add);
+
+        receive(ring, frame(40, 1));
+        receive(ring, frame(40, 2));
+        // A newer frame going back does not free the older one's space.
+        release(1);
+        ring.writable().put(header(30));
+        ring.onReceived();
+        assertNull(ring.writable());
+
+        release(0);
+        ByteBuffer target = ring.writable();
+        assertNotNull(target);
+        target.put(payload(30, 3));
+        ring.onReceived();
+
+        assertEquals(3, frames.size());
+        assertPayload(payload(30, 3), frames.get(2));
+        assertEquals(1, ring.getFramesInFlight());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsFramesLargerThanTheRing() throws Exception {
+        FrameRing ring = new FrameRing(100, frames::add);
+
+        receive(ring, frame(200, 1));
+    }
+
+    @Test
+    public void resetDropsPartialFrame() throws Exception {
+        FrameRing ring = new FrameRing(100, frames::add);
+
+        receive(ring, header(40));
+        ring.reset();
+        receive(ring, frame(10, 1));
+
+        assertEquals(1, frames.size());
+        assertPayload(payload(10, 1), frames.get(0));
+    }
+
+    private static void receive(FrameRing ring, byte[] bytes) throws Exception {
+        int written = 0;
+        while (written < bytes.length) {
+            ByteBuffer target = ring.writable();
+            assertNotNull("ring full", target);
+            int count = Math.min(target.remaining(), bytes.length - written);
+            target.put(bytes, written, count);
+            written += count;
+            ring.onReceived();
+        }
+    }
+
+    private void release(int index) {
+        FrameBuffer frame = frames.get(index);
+        frame.ring.release(frame);
+    }
+
+    private static void assertPayload(byte[] expected, FrameBuffer frame) {
+        byte[] actual = new byte[frame.length];
+        frame.copyTo(0, actual, 0, frame.length);
+        assertArrayEquals(expected, actual);
+    }
+}
@@ -0,0 +1,49 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    private static final int[] PERCENTILES = { 50, 95, 99 };
+
+    @Test
+    public void computesPercentilesInMillis() {
+        LatencyHistogram histogram = new LatencyHistogram(100);
+        for (int i = 100; i >= 1; i--) {
+            histogram.record(i * 1_000_000L);
+        }
+
+        double[] millis = new double[PERCENTILES.length];
+        histogram.percentilesMillis(PERCENTILES, millis);
+        assertEquals(51, millis[0], 0.001);
+        assertEquals(96, millis[1], 0.001);
+        assertEquals(100, millis[2], 0.001);
+    }
+
+    @Test
+    public void keepsOnlyMostRecentSamples() {
+        LatencyHistogram histogram = new LatencyHistogram(4);
+        for (int i = 0; i < 10; i++) {
+            histogram.record(1_000_000_000L);
+        }
+        for (int i = 0; i < 4; i++) {
+            histogram.record(2_000_000L);
+        }
+
+        double[] millis = new double[PERCENTILES.length];
+        histogram.percentilesMillis(PERCENTILES, millis);
+        assertEquals(2, millis[2], 0.001);
+    }
+
+    @Test
+    public void reportsZeroWhenEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram(4);
+        histogram.record(5_000_000L);
+        histogram.reset();
+
+        double[] millis = new double[PERCENTILES.length];
+        histogram.percentilesMillis(PERCENTILES, millis);
+        assertEquals(0, millis[0], 0);
+    }
+}
@@ -0,0 +1,381 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+// Drives the JVM-side monitor path (MonitorStream -> MonitorChannel -> FrameDecoder ->
+// FrameParser) against PiServerSimulator over loopback.
+public class LoopbackStreamTest {
+    private static final String TOKEN = "0f8c1c52-1d6a-4bde-9f3f-6f4e1e0c2a11";
+    private static final int TILE_COUNT = 4;
+    private static final int STREAM_FRAMES = 60;
+    // Generous, as these only bound how long a broken stream takes to fail the test.
+    private static final long AWAIT_MS = 10000;
+
+    private PiServerSimulator simulator;
+    private Socket commandSocket;
+
+    @After
+    public void tearDown() throws IOException {
+        if (commandSocket != null) {
+            commandSocket.close();
+        }
+        if (simulator != null) {
+            simulator.close();
+        }
+    }
+
+    @Test
+    public void reassemblesFragmentedJitteryStream() throws Exception {
+        PiServerSimulator.Config config = new PiServerSimulator.Config();
+        config.token = TOKEN;
+        config.fps = 60;
+        config.tileSize = 32 * 1024;
+        config.jitterMillis = 3;
+        config.fragmentSize = 1448;
+        simulator = new PiServerSimulator(config);
+
+        FrameBufferPool pool = new FrameBufferPool(3);
+        FrameParser parser = new FrameParser(TILE_COUNT);
+        CountDownLatch frames = new CountDownLatch(STREAM_FRAMES);
+        AtomicInteger badFrames = new AtomicInteger();
+
+        MonitorChannel channel = new MonitorChannel(InetAddress.getLoopbackAddress()
+                .getHostAddress(), simulator.getMonitorPort(), new FrameDecoder(pool, frame -> {
+            if (parser.parse(frame.data, frame.length) != TILE_COUNT ||
+                    parser.tileLengths[TILE_COUNT - 1] != config.tileSize) {
+                badFrames.incrementAndGet();
+            }
+            frames.countDown();
+            pool.release(frame);
+        }));
+
+        Thread reader = startReader(channel, new AtomicReference<>());
+        sendToken(TOKEN);
+        assertTrue(simulator.awaitAuthorized(AWAIT_MS));
+        assertTrue("frames missing: " + frames.getCount(),
+                frames.await(AWAIT_MS, TimeUnit.MILLISECONDS));
+        channel.close();
+        reader.join(AWAIT_MS);
+        assertFalse("reader did not shut down", reader.isAlive());
+
+        assertEquals(0, badFrames.get());
+        assertTrue("receive buffers not reused", pool.getAllocationCount() <= 3);
+    }
+
+    @Test
+    public void versionedFramesReportSequenceGaps() throws Exception {
+        PiServerSimulator.Config config = new PiServerSimulator.Config();
+        config.token = TOKEN;
+        config.fps = 100;
+        config.tileCount = 6;
+        config.tileSize = 1024;
+        config.versionedHeader = true;
+        config.gridColumns = 3;
+        config.skipEvery = 10;
+        simulator = new PiServerSimulator(config);
+
+        FrameParser parser = new FrameParser(16);
+        SequenceTracker tracker = new SequenceTracker();
+        AtomicInteger frames = new AtomicInteger();
+        AtomicInteger badFrames = new AtomicInteger();
+
+        // Small enough that receiving wraps around the ring many times.
+        FrameRing ring = new FrameRing(64 * 1024, frame -> {
+            tracker.onSequence(FrameParser.readSequence(frame));
+            if (parser.parse(frame) != 6 || parser.version != 1 || parser.gridColumns != 3) {
+                badFrames.incrementAndGet();
+            }
+            frames.incrementAndGet();
+            frame.ring.release(frame);
+        });
+        MonitorChannel channel = new MonitorChannel(InetAddress.getLoopbackAddress()
+                .getHostAddress(), simulator.getMonitorPort(), ring, 0);
+
+        Thread reader = startReader(channel, new AtomicReference<>());
+        sendToken(TOKEN);
+        assertTrue(simulator.awaitAuthorized(2000));
+        Thread.sleep(500);
+        channel.close();
+        reader.join(2000);
+
+        int received = frames.get();
+        assertTrue("too few frames: " + received, received > 20);
+        assertEquals(0, badFrames.get());
+        // One sequence number is skipped per ten frames sent.
+        assertEquals(received / 10, tracker.getLostFrames(), 1);
+    }
+
+    @Test
+    public void clockSyncMeasuresCaptureAge() throws Exception {
+        PiServerSimulator.Config config = new PiServerSimulator.Config();
+        config.token = TOKEN;
+        config.fps = 100;
+        config.tileSize = 1024;
+        config.versionedHeader = true;
+        config.clockOffsetMicros = TimeUnit.SECONDS.toMicros(3600);
+        simulator = new PiServerSimulator(config);
+
+        sendToken(TOKEN);
+        assertTrue(simulator.awaitAuthorized(2000));
+        ClockSync clockSync = new ClockSync();
+        DataInputStream replies = new DataInputStream(commandSocket.getInputStream());
+        for (int i = 0; i < 4; i++) {
+            sendCommand(ClockSync.request(System.nanoTime()));
+            String reply = PiServerSimulator.readCommand(replies);
+            assertTrue(reply, clockSync.onReply(reply, System.nanoTime()));
+        }
+
+        assertTrue(clockSync.isSynchronized());
+        long errorMicros = Math.abs(clockSync.getOffsetMicros() - config.clockOffsetMicros);
+        assertTrue("offset off by " + errorMicros + " us",
+                errorMicros <= clockSync.getRoundTripMicros() / 2 + 1);
+
+        FrameBufferPool pool = new FrameBufferPool(3);
+        AtomicInteger frames = new AtomicInteger();
+        AtomicInteger badAges = new AtomicInteger();
+        MonitorChannel channel = new MonitorChannel(InetAddress.getLoopbackAddress()
+                .getHostAddress(), simulator.getMonitorPort(), new FrameDecoder(pool, frame -> {
+            long age = System.nanoTime() - clockSync.toClientNanos(
+                    FrameParser.readTimestampMicros(frame));
+            if (age < -TimeUnit.MILLISECONDS.toNanos(1) ||
+                    age > TimeUnit.MILLISECONDS.toNanos(100)) {
+                badAges.incrementAndGet();
+            }
+            frames.incrementAndGet();
+            pool.release(frame);
+        }));
+
+        Thread reader = startReader(channel, new AtomicReference<>());
+        Thread.sleep(300);
+        channel.close();
+        reader.join(2000);
+
+        assertTrue("too few frames: " + frames.get(), frames.get() > 10);
+        assertEquals(0, badAges.get());
+    }
+
+    @Test
+    public void resumedStreamFlowsWithoutNewToken() throws Exception {
+        PiServerSimulator.Config config = new PiServerSimulator.Config();
+        config.token = TOKEN;
+        config.fps = 100;
+        config.tileSize = 1024;
+        config.versionedHeader = true;
+        simulator = new PiServerSimulator(config);
+
+        sendToken(TOKEN);
+        assertTrue(simulator.awaitAuthorized(AWAIT_MS));
+        AtomicReference<CountDownLatch> frames = new AtomicReference<>(new CountDownLatch(10));
+        FrameRing ring = new FrameRing(64 * 1024, frame -> {
+            frames.get().countDown();
+            frame.ring.release(frame);
+        });
+        AtomicInteger lost = new AtomicInteger();
+        ExecutorService opener = Executors.newSingleThreadExecutor();
+        MonitorStream stream = new MonitorStream(simulator.getMonitorPort(), 0,
+                new RingSink(ring), (command, collapse) -> {
+            try {
+                sendCommand(command);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, opener, lost::incrementAndGet);
+        stream.setHost(InetAddress.getLoopbackAddress().getHostAddress());
+
+        try {
+            stream.open();
+            assertTrue("no frames before pause",
+                    frames.get().await(AWAIT_MS, TimeUnit.MILLISECONDS));
+
+            assertTrue(stream.pause());
+            assertFalse(stream.isOpen());
+            assertTrue("receive thread still running", stream.join());
+            // A reconnect while paused leaves the stream closed.
+            stream.open();
+            assertFalse(stream.isOpen());
+
+            frames.set(new CountDownLatch(10));
+            assertTrue(stream.resume());
+            assertTrue("no frames after resume",
+                    frames.get().await(AWAIT_MS, TimeUnit.MILLISECONDS));
+        }
+        finally {
+            stream.close();
+            stream.join();
+            opener.shutdown();
+        }
+
+        // The reply comes after every earlier command has been recorded.
+        sendCommand(ClockSync.request(System.nanoTime()));
+        assertNotNull(PiServerSimulator.readCommand(
+                new DataInputStream(commandSocket.getInputStream())));
+        List<String> commands = simulator.getReceivedCommands();
+        int pauseIndex = commands.indexOf(MonitorStream.STREAM_PAUSE);
+        assertTrue(commands.toString(), pauseIndex >= 0);
+        assertTrue(commands.toString(),
+                commands.indexOf(MonitorStream.STREAM_RESUME) > pauseIndex);
+        assertFalse("token sent again", commands.contains(TOKEN));
+        assertEquals(1, simulator.getAuthorizationCount());
+        assertEquals(0, lost.get());
+    }
+
+    @Test
+    public void refusedStreamIsReportedLost() throws Exception {
+        int port;
+        try (ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = closed.getLocalPort();
+        }
+
+        CountDownLatch lost = new CountDownLatch(1);
+        MonitorStream stream = new MonitorStream(port, 0,
+                new RingSink(new FrameRing(1024, frame -> { })), (command, collapse) -> { },
+                Runnable::run, lost::countDown);
+        stream.setHost(InetAddress.getLoopbackAddress().getHostAddress());
+        stream.open();
+
+        assertTrue("refused stream not reported", lost.await(AWAIT_MS, TimeUnit.MILLISECONDS));
+        stream.close();
+        assertTrue(stream.join());
+    }
+
+    @Test
+    public void rejectsWrongToken() throws Exception {
+        PiServerSimulator.Config config = new PiServerSimulator.Config();
+        config.token = TOKEN;
+        simulator = new PiServerSimulator(config);
+
+        sendToken(TOKEN.replace('0', '1'));
+        assertFalse(simulator.awaitAuthorized(300));
+    }
+
+    @Test
+    public void closeStopsIdleReaderPromptly() throws Exception {
+        PiServerSimulator.Config config = new PiServerSimulator.Config();
+        config.token = TOKEN;
+        simulator = new PiServerSimulator(config);
+
+        // No token sent, so the simulator never streams and the reader sits idle.
+        MonitorChannel channel = new MonitorChannel(InetAddress.getLoopbackAddress()
+                .getHostAddress(), simulator.getMonitorPort(),
+                new FrameDecoder(new FrameBufferPool(1), frame -> { }));
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread reader = startReader(channel, failure);
+        Thread.sleep(200);
+
+        long start = System.nanoTime();
+        channel.close();
+        reader.join(1000);
+        assertFalse(reader.isAlive());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+        assertNull(failure.get());
+    }
+
+    @Test
+    public void stallTimeoutFailsQuietStream() throws Exception {
+        PiServerSimulator.Config config = new PiServerSimulator.Config();
+        config.token = TOKEN;
+        simulator = new PiServerSimulator(config);
+
+        // Never authorized, so the simulator accepts the connection but sends nothing.
+        MonitorChannel channel = new MonitorChannel(InetAddress.getLoopbackAddress()
+                .getHostAddress(), simulator.getMonitorPort(),
+                new FrameDecoder(new FrameBufferPool(1), frame -> { }), 200);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread reader = startReader(channel, failure);
+        reader.join(2000);
+
+        assertFalse(reader.isAlive());
+        assertTrue(failure.get() instanceof SocketTimeoutException);
+    }
+
+    @Test
+    public void stallTimeoutFailsWhenRingIsNotDrained() throws Exception {
+        PiServerSimulator.Config config = new PiServerSimulator.Config();
+        config.token = TOKEN;
+        config.fps = 100;
+        config.tileSize = 1024;
+        simulator = new PiServerSimulator(config);
+
+        // Frames are never released, so the ring fills up while the server keeps sending.
+        FrameRing ring = new FrameRing(64 * 1024, frame -> { });
+        MonitorChannel channel = new MonitorChannel(InetAddress.getLoopbackAddress()
+                .getHostAddress(), simulator.getMonitorPort(), ring, 200);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread reader = startReader(channel, failure);
+        sendToken(TOKEN);
+        reader.join(AWAIT_MS);
+
+        assertFalse(reader.isAlive());
+        assertTrue(failure.get() instanceof SocketTimeoutException);
+    }
+
+    // Stands in for FramePipeline, which needs Android to decode.
+    private static class RingSink implements MonitorStream.Sink {
+        private final FrameRing ring;
+
+        RingSink(FrameRing ring) {
+            this.ring = ring;
+        }
+
+        @Override
+        public FrameRing getReceiveRing() {
+            return ring;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    private Thread startReader(MonitorChannel channel, AtomicReference<Exception> failure) {
+        Thread reader = new Thread(() -> {
+            try {
+                channel.run();
+            } catch (EOFException e) {
+                // Server went away; fine for these tests.
+            } catch (IOException e) {
+                failure.set(e);
+            }
+        });
+        reader.start();
+        return reader;
+    }
+
+    private void sendToken(String token) throws IOException {
+        commandSocket = new Socket(InetAddress.getLoopbackAddress(),
+                simulator.getCommandPort());
+        sendCommand(token);
+    }
+
+    private void sendCommand(String command) throws IOException {
+        CommandEncoder encoder = new CommandEncoder(64);
+        encoder.append(command);
+        OutputStream outputStream = commandSocket.getOutputStream();
+        outputStream.write(encoder.getBuffer(), 0, encoder.getLength());
+        outputStream.flush();
+    }
+}
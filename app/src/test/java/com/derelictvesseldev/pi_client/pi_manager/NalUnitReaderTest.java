@@ -0,0 +1,135 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.derelictvesseldev.pi_client.pi_manager.FrameDecoderTest.concat;
+import static org.junit.Assert.*;
+
+public class NalUnitReaderTest {
+    private static final byte[] START3 = { 0, 0, 1 };
+    private static final byte[] START4 = { 0, 0, 0, 1 };
+
+    private final NalUnitReader reader = new NalUnitReader(16);
+
+    @Test
+    public void splitsH264AccessUnit() {
+        byte[] sps = { 0x67, 0x42, 0x00, 0x1F, 0x05 };
+        byte[] pps = { 0x68, (byte)0xCE, 0x3C, (byte)0x80 };
+        byte[] idr = { 0x65, (byte)0x88, (byte)0x84, 0x00, 0x00, 0x03, 0x02 };
+        byte[] data = concat(START4, sps, START4, pps, START3, idr);
+
+        assertEquals(3, reader.read(data, 0, data.length, NalUnitReader.CODEC_H264));
+        assertEquals(NalUnitReader.H264_SPS, reader.unitTypes[0]);
+        assertEquals(NalUnitReader.H264_PPS, reader.unitTypes[1]);
+        assertEquals(NalUnitReader.H264_IDR, reader.unitTypes[2]);
+        assertEquals(4, reader.unitOffsets[0]);
+        assertEquals(sps.length, reader.unitLengths[0]);
+        assertEquals(13, reader.unitOffsets[1]);
+        assertEquals(pps.length, reader.unitLengths[1]);
+        assertEquals(idr.length, reader.unitLengths[2]);
+        assertTrue(reader.hasKeyFrame());
+        assertTrue(reader.hasParameterSets());
+    }
+
+    @Test
+    public void deltaFrameIsNotKeyFrame() {
+        byte[] data = concat(START4, new byte[] { 0x41, (byte)0x9A, 0x12 });
+
+        assertEquals(1, reader.read(data, 0, data.length, NalUnitReader.CODEC_H264));
+        assertFalse(reader.hasKeyFrame());
+        assertFalse(reader.hasParameterSets());
+    }
+
+    @Test
+    public void classifiesH265Units() {
+        byte[] vps = { 0x40, 0x01, 0x0C };
+        byte[] sps = { 0x42, 0x01, 0x01 };
+        byte[] pps = { 0x44, 0x01, (byte)0xC1 };
+        byte[] cra = { 0x2A, 0x01, (byte)0xAF };
+        byte[] data = concat(START4, vps, START4, sps, START4, pps, START4, cra);
+
+        assertEquals(4, reader.read(data, 0, data.length, NalUnitReader.CODEC_H265));
+        assertEquals(NalUnitReader.H265_VPS, reader.unitTypes[0]);
+        assertEquals(NalUnitReader.H265_SPS, reader.unitTypes[1]);
+        assertEquals(NalUnitReader.H265_PPS, reader.unitTypes[2]);
+        assertEquals(NalUnitReader.H265_CRA, reader.unitTypes[3]);
+        assertTrue(reader.hasKeyFrame());
+        assertTrue(reader.hasParameterSets());
+
+        // Without the VPS an H.265 decoder cannot be configured.
+        byte[] partial = concat(START4, sps, START4, pps, START4, cra);
+        reader.read(partial, 0, partial.length, NalUnitReader.CODEC_H265);
+        assertFalse(reader.hasParameterSets());
+    }
+
+    @Test
+    public void trimsTrailingZerosAndLeadingGarbage() {
+        byte[] data = concat(new byte[] { 0x11, 0x22 }, START3, new byte[] { 0x65, 0x01 },
+                new byte[] { 0, 0 }, START4, new byte[] { 0x41, 0x02 }, new byte[] { 0 });
+
+        assertEquals(2, reader.read(data, 0, data.length, NalUnitReader.CODEC_H264));
+        assertEquals(5, reader.unitOffsets[0]);
+        assertEquals(2, reader.unitLengths[0]);
+        assertEquals(2, reader.unitLengths[1]);
+    }
+
+    @Test
+    public void readsWithinRange() {
+        byte[] unit = { 0x65, 0x10, 0x20 };
+        byte[] data = concat(START4, unit, START4, unit);
+
+        assertEquals(1, reader.read(data, 7, data.length - 7, NalUnitReader.CODEC_H264));
+        assertEquals(11, reader.unitOffsets[0]);
+        assertEquals(0, reader.read(data, 0, 3, NalUnitReader.CODEC_H264));
+    }
+
+    @Test
+    public void writesParameterSetsForCodecConfig() {
+        byte[] sps = { 0x67, 0x42 };
+        byte[] pps = { 0x68, (byte)0xCE };
+        byte[] data = concat(START3, sps, START3, pps, START3, new byte[] { 0x65, 0x01 });
+        reader.read(data, 0, data.length, NalUnitReader.CODEC_H264);
+
+        ByteBuffer out = ByteBuffer.allocate(64);
+        assertEquals(12, reader.writeParameterSets(data, out));
+        assertArrayEquals(concat(START4, sps, START4, pps),
+                Arrays.copyOf(out.array(), out.position()));
+    }
+
+    @Test
+    public void findsEveryStartCodeInRandomStream() {
+        // A recorded-stream stand-in: random payloads with start codes at known positions, and
+        // emulation prevention so a payload never contains 00 00 0x.
+        Random random = new Random(7);
+        byte[] data = new byte[64 * 1024];
+        int[] expected = new int[512];
+        int count = 0;
+        int position = 0;
+        while (position + 200 < data.length && count < expected.length) {
+            data[position] = 0;
+            data[position + 1] = 0;
+            data[position + 2] = 1;
+            expected[count++] = position + 3;
+            position += 3;
+            int length = 1 + random.nextInt(150);
+            for (int i = 0; i < length; i++) {
+                byte value = (byte)random.nextInt(256);
+                if (i >= 2 && data[position - 1] == 0 && data[position - 2] == 0 &&
+                        (value & 0xFF) <= 3) {
+                    value = 3;
+                }
+                data[position++] = i == length - 1 && value == 0 ? 1 : value;
+            }
+        }
+
+        NalUnitReader reader = new NalUnitReader(expected.length);
+        assertEquals(count, reader.read(data, 0, position, NalUnitReader.CODEC_H264));
+        for (int i = 0; i < count; i++) {
+            assertEquals(expected[i], reader.unitOffsets[i]);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Loopback stand-in for pi-server: framed token handshake on the command port and a stream of
+// tiled frames on the monitor port, legacy or with a versioned header. Answers ClockSync's
+// "time" requests on the command connection. The first 8 bytes of
+// tile 0 carry System.nanoTime() at send time, so in-process tests can measure end-to-end
+// latency.
+//
+// Run main() to serve a device on the real ports: java ... PiServerSimulator <token> [fps]
+class PiServerSimulator implements Closeable {
+    static class Config {
+        InetAddress bindAddress = InetAddress.getLoopbackAddress();
+        int commandPort = 0;
+        int monitorPort = 0;
+        // Empty accepts whatever the client sends first as its token.
+        String token = "";
+        int fps = 30;
+        int tileCount = 4;
+        int tileSize = 32 * 1024;
+        int jitterMillis = 0;
+        // Bytes per socket write; 0 writes each frame in one call.
+        int fragmentSize = 0;
+        // Send FrameParser's versioned header instead of the legacy four-tile layout.
+        boolean versionedHeader = false;
+        int gridColumns = 1;
+        // Skip a sequence number after every this many frames, as a server dropping frames would.
+        int skipEvery = 0;
+        // Added to System.nanoTime() for the server clock used by timestamps and clock sync.
+        long clockOffsetMicros = 0;
+    }
+
+    private final Config config;
+    private final ServerSocket commandServer;
+    private final ServerSocket monitorServer;
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+    private final CountDownLatch authorized = new CountDownLatch(1);
+    private final AtomicInteger authorizations = new AtomicInteger();
+    private final List<String> receivedCommands = new ArrayList<>();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private volatile boolean closed;
+    private volatile int currentFps;
+
+    PiServerSimulator(Config config) throws IOException {
+        this.config = config;
+        commandServer = new ServerSocket(config.commandPort, 1, config.bindAddress);
+        monitorServer = new ServerSocket(config.monitorPort, 1, config.bindAddress);
+        threads.execute(this::acceptCommands);
+        threads.execute(this::acceptMonitors);
+    }
+
+    int getCommandPort() {
+        return commandServer.getLocalPort();
+    }
+
+    int getMonitorPort() {
+        return monitorServer.getLocalPort();
+    }
+
+    long getFramesSent() {
+        return framesSent.get();
+    }
+
+    long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    boolean awaitAuthorized(long timeoutMillis) throws InterruptedException {
+        return authorized.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Command connections that presented an accepted token.
+    int getAuthorizationCount() {
+        return authorizations.get();
+    }
+
+    List<String> getReceivedCommands() {
+        synchronized (receivedCommands) {
+            return new ArrayList<>(receivedCommands);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        commandServer.close();
+        monitorServer.close();
+        threads.shutdownNow();
+    }
+
+    private void acceptCommands() {
+        while (!closed) {
+            try (Socket socket = commandServer.accept()) {
+                serveCommands(socket);
+            } catch (IOException e) {
+                if (!closed) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void serveCommands(Socket socket) throws IOException {
+        DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+
+        String token = readCommand(inputStream);
+        if (token == null || (!config.token.isEmpty() && !token.equals(config.token))) {
+            return;
+        }
+        currentFps = config.fps;
+        authorizations.incrementAndGet();
+        authorized.countDown();
+
+        OutputStream outputStream = socket.getOutputStream();
+        String command;
+        while ((command = readCommand(inputStream)) != null) {
+            long receivedMicros = serverMicros();
+            synchronized (receivedCommands) {
+                receivedCommands.add(command);
+            }
+            if (command.startsWith(ClockSync.COMMAND + " ")) {
+                CommandEncoder reply = new CommandEncoder(64);
+                reply.append(command + " " + receivedMicros + " " + serverMicros());
+                outputStream.write(reply.getBuffer(), 0, reply.getLength());
+                outputStream.flush();
+            }
+            if (command.startsWith("fps ")) {
+                try {
+                    currentFps = Math.max(1, Integer.parseInt(command.substring(4).trim()));
+                } catch (NumberFormatException e) {
+                    // Ignored, as the real server would.
+                }
+            }
+        }
+    }
+
+    // Commands are framed as a little-endian 32-bit length followed by UTF-8 text.
+    static String readCommand(DataInputStream inputStream) throws IOException {
+        byte[] header = new byte[CommandEncoder.LENGTH_SIZE];
+        try {
+            inputStream.readFully(header);
+            int length = FrameParser.fromByteArray(header, 0);
+            if (length < 0 || length > 64 * 1024) {
+                return null;
+            }
+
+            byte[] command = new byte[length];
+            inputStream.readFully(command);
+            return new String(command, StandardCharsets.UTF_8);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private void acceptMonitors() {
+        while (!closed) {
+            try (Socket socket = monitorServer.accept()) {
+                if (awaitAuthorized(5000)) {
+                    streamFrames(socket);
+                }
+            } catch (IOException | InterruptedException e) {
+                if (!closed) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void streamFrames(Socket socket) throws IOException, InterruptedException {
+        socket.setTcpNoDelay(true);
+        OutputStream outputStream = socket.getOutputStream();
+        Random random = new Random(1);
+        byte[] frame = buildFrame(random);
+        int fragmentSize = config.fragmentSize > 0 ? config.fragmentSize : frame.length;
+        ByteBuffer frameBuffer = ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN);
+        int headerSize = config.versionedHeader ? FrameParser.HEADER_SIZE : 0;
+        int sendTimeOffset = FrameDecoder.HEADER_SIZE + headerSize + FrameParser.LENGTH_SIZE;
+        long sequence = 0;
+        long nextFrameTime = System.nanoTime();
+
+        while (!closed) {
+            long now = System.nanoTime();
+            frameBuffer.putLong(sendTimeOffset, now);
+            if (config.versionedHeader) {
+                frameBuffer.putInt(FrameDecoder.HEADER_SIZE + 16, (int)sequence);
+                frameBuffer.putLong(FrameDecoder.HEADER_SIZE + 20, serverMicros(now));
+            }
+            sequence++;
+            if (config.skipEvery > 0 && sequence % config.skipEvery == 0) {
+                sequence++;
+            }
+
+            try {
+                for (int offset = 0; offset < frame.length; offset += fragmentSize) {
+                    outputStream.write(frame, offset,
+                            Math.min(fragmentSize, frame.length - offset));
+                }
+                outputStream.flush();
+            } catch (IOException e) {
+                // Client disconnected.
+                return;
+            }
+            framesSent.incrementAndGet();
+            bytesSent.addAndGet(frame.length);
+
+            nextFrameTime += TimeUnit.SECONDS.toNanos(1) / currentFps;
+            long jitterNanos = config.jitterMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(
+                    random.nextInt(2 * config.jitterMillis + 1) - config.jitterMillis) : 0;
+            long sleepNanos = nextFrameTime + jitterNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            }
+        }
+    }
+
+    private long serverMicros() {
+        return serverMicros(System.nanoTime());
+    }
+
+    private long serverMicros(long nanoTime) {
+        return TimeUnit.NANOSECONDS.toMicros(nanoTime) + config.clockOffsetMicros;
+    }
+
+    private byte[] buildFrame(Random random) {
+        int headerSize = config.versionedHeader ? FrameParser.HEADER_SIZE : 0;
+        int frameSize = headerSize + config.tileCount * (FrameParser.LENGTH_SIZE + config.tileSize);
+        ByteBuffer buffer = ByteBuffer.allocate(FrameDecoder.HEADER_SIZE + frameSize)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        byte[] tile = new byte[config.tileSize];
+
+        buffer.putInt(frameSize);
+        if (config.versionedHeader) {
+            // Sequence and timestamp are filled in per frame.
+            buffer.putInt(FrameParser.MAGIC)
+                    .put((byte)FrameParser.VERSION)
+                    .put((byte)FrameParser.HEADER_SIZE)
+                    .put((byte)config.tileCount)
+                    .put((byte)config.gridColumns)
+                    .putShort((short)640)
+                    .putShort((short)480)
+                    .put((byte)FrameParser.ENCODING_JPEG)
+                    .put((byte)0)
+                    .putShort((short)0)
+                    .putInt(0)
+                    .putLong(0);
+        }
+        for (int i = 0; i < config.tileCount; i++) {
+            random.nextBytes(tile);
+            buffer.putInt(config.tileSize);
+            buffer.put(tile);
+        }
+
+        return buffer.array();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = new Config();
+        config.bindAddress = null;
+        config.commandPort = 34602;
+        config.monitorPort = 34601;
+        config.token = args.length > 0 ? args[0] : "";
+        config.fps = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+
+        try (PiServerSimulator simulator = new PiServerSimulator(config)) {
+            while (true) {
+                Thread.sleep(1000);
+                System.out.println("frames sent: " + simulator.getFramesSent());
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RateControllerTest {
+    private static final long SECOND = 1_000_000_000L;
+    private static final long MILLI = 1_000_000L;
+
+    private final List<String> commands = new ArrayList<>();
+    private final RateController controller = new RateController(commands::add);
+
+    private long time;
+    private long received;
+    private long dropped;
+    private long decoded;
+    private long decodeNanos;
+    private long bytes;
+    private long receiveNanos;
+    // Share of each second spent receiving frames; saturated unless a test says otherwise.
+    private double linkBusy = 0.9;
+
+    // One second of stream: frames arrived, how many were dropped, and per-frame decode time.
+    private void interval(int frames, int drops, long decodeMillis) {
+        time += SECOND;
+        receiveNanos += frames > 0 ? (long)(linkBusy * SECOND) : 0;
+        received += frames;
+        dropped += drops;
+        decoded += frames - drops;
+        decodeNanos += (frames - drops) * decodeMillis * MILLI;
+        bytes += frames * 100_000L;
+        controller.update(time, received, dropped, decoded, decodeNanos, bytes, receiveNanos);
+    }
+
+    @Test
+    public void resetAnnouncesFullRate() {
+        controller.reset();
+        assertEquals(2, commands.size());
+        assertEquals("fps " + RateController.MAX_FPS, commands.get(0));
+        assertEquals("quality " + RateController.MAX_QUALITY, commands.get(1));
+    }
+
+    @Test
+    public void slowDecodeLowersFps() {
+        interval(30, 0, 10);
+        interval(30, 0, 40);
+        assertEquals(22, controller.getTargetFps());
+        assertEquals(RateController.MAX_QUALITY, controller.getTargetQuality());
+        assertEquals("fps 22", commands.get(commands.size() - 1));
+        assertEquals(3_000_000, controller.getBytesPerSecond(), 1);
+    }
+
+    @Test
+    public void dropsLowerFpsDownToFloor() {
+        interval(30, 0, 5);
+        for (int i = 0; i < 20; i++) {
+            interval(30, 10, 5);
+        }
+        assertEquals(RateController.MIN_FPS, controller.getTargetFps());
+    }
+
+    @Test
+    public void slowDeliveryLowersQuality() {
+        interval(30, 0, 5);
+        interval(15, 0, 5);
+        assertEquals(RateController.MAX_FPS, controller.getTargetFps());
+        assertEquals(80, controller.getTargetQuality());
+        assertEquals("quality 80", commands.get(commands.size() - 1));
+    }
+
+    @Test
+    public void slowServerOnIdleLinkLowersFpsNotQuality() {
+        linkBusy = 0.1;
+        interval(15, 0, 5);
+        interval(15, 0, 5);
+        assertEquals(15, controller.getTargetFps());
+
+        for (int i = 0; i < 30; i++) {
+            interval(15, 0, 5);
+            assertEquals(RateController.MAX_QUALITY, controller.getTargetQuality());
+            assertTrue("fps " + controller.getTargetFps(), controller.getTargetFps() >= 15 &&
+                    controller.getTargetFps() <= 19);
+        }
+        for (String command : commands) {
+            assertFalse(command, command.startsWith("quality"));
+        }
+    }
+
+    @Test
+    public void growingThroughputIsNotBlamedOnTheLink() {
+        interval(30, 0, 5);
+        interval(12, 0, 5);
+        assertEquals(80, controller.getTargetQuality());
+
+        // More bytes got through than before, so the link was not what held frames back.
+        interval(20, 0, 5);
+        assertEquals(20, controller.getTargetFps());
+        assertEquals(80, controller.getTargetQuality());
+    }
+
+    @Test
+    public void healthyStreamProbesQualityThenFps() {
+        interval(30, 0, 5);
+        interval(15, 0, 5);
+        interval(15, 0, 5);
+        assertEquals(70, controller.getTargetQuality());
+
+        for (int i = 0; i < 12; i++) {
+            interval(30, 0, 5);
+        }
+        assertEquals(RateController.MAX_QUALITY, controller.getTargetQuality());
+        assertEquals(RateController.MAX_FPS, controller.getTargetFps());
+
+        interval(30, 0, 40);
+        assertEquals(22, controller.getTargetFps());
+        for (int i = 0; i < 3; i++) {
+            interval(22, 0, 5);
+        }
+        assertEquals(24, controller.getTargetFps());
+    }
+
+    @Test
+    public void idleIntervalChangesNothing() {
+        interval(0, 0, 0);
+        interval(0, 0, 0);
+        assertTrue(commands.isEmpty());
+    }
+}
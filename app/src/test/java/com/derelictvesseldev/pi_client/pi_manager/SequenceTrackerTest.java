@@ -0,0 +1,42 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SequenceTrackerTest {
+    private final SequenceTracker tracker = new SequenceTracker();
+
+    @Test
+    public void countsGaps() {
+        tracker.onSequence(1);
+        tracker.onSequence(2);
+        tracker.onSequence(5);
+        tracker.onSequence(6);
+        assertEquals(2, tracker.getLostFrames());
+    }
+
+    @Test
+    public void countsAcrossWraparound() {
+        tracker.onSequence(0xFFFFFFFEL);
+        tracker.onSequence(1);
+        assertEquals(2, tracker.getLostFrames());
+    }
+
+    @Test
+    public void treatsRestartAsNoLoss() {
+        tracker.onSequence(1000);
+        tracker.onSequence(3);
+        tracker.onSequence(4);
+        assertEquals(0, tracker.getLostFrames());
+    }
+
+    @Test
+    public void ignoresLegacyFramesAndReset() {
+        tracker.onSequence(FrameParser.NO_SEQUENCE);
+        tracker.onSequence(10);
+        tracker.reset();
+        tracker.onSequence(20);
+        assertEquals(0, tracker.getLostFrames());
+    }
+}
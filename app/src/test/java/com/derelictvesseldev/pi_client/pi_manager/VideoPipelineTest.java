@@ -0,0 +1,132 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import android.graphics.SurfaceTexture;
+import android.view.Surface;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.derelictvesseldev.pi_client.pi_manager.FrameDecoderTest.concat;
+import static org.junit.Assert.*;
+
+public class VideoPipelineTest {
+    private static final byte[] START = { 0, 0, 0, 1 };
+    private static final byte[] SPS = { 0x67, 0x42, 0x00, 0x1F, 0x05 };
+    private static final byte[] PPS = { 0x68, (byte)0xCE, 0x3C, (byte)0x80 };
+    private static final byte[] IDR = { 0x65, (byte)0x88, (byte)0x84, 0x00 };
+    private static final byte[] SLICE = { 0x41, (byte)0x9A, 0x12, 0x34 };
+    private static final int QUEUE_SIZE = 8;
+
+    private final FrameBufferPool pool = new FrameBufferPool(4);
+    private final FakeVideoDecoder decoder = new FakeVideoDecoder();
+    private final VideoPipeline pipeline = new VideoPipeline(pool, new PipelineMetrics(),
+            decoder);
+
+    @After
+    public void tearDown() {
+        decoder.proceed.countDown();
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void skipsToKeyFrameAfterQueueOverflow() throws Exception {
+        pipeline.setSurface(new Surface((SurfaceTexture)null));
+        pipeline.start();
+
+        // The decoder stalls on the first key frame while the queue overflows behind it.
+        pipeline.offer(frame(0, true));
+        assertTrue(decoder.entered.await(2, TimeUnit.SECONDS));
+        for (int i = 1; i <= QUEUE_SIZE + 2; i++) {
+            pipeline.offer(frame(i, false));
+        }
+        pipeline.offer(frame(100, true));
+        decoder.proceed.countDown();
+
+        assertTrue(decoder.done.await(2, TimeUnit.SECONDS));
+        synchronized (decoder.accepted) {
+            assertEquals(2, decoder.accepted.size());
+            assertEquals(0L, (long)decoder.accepted.get(0));
+            assertEquals(100L, (long)decoder.accepted.get(1));
+        }
+        assertEquals(QUEUE_SIZE + 2, pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void stopsPollingForOutputThatNeverComes() throws Exception {
+        pipeline.setSurface(new Surface((SurfaceTexture)null));
+        pipeline.start();
+        decoder.proceed.countDown();
+
+        // The fake codec accepts the unit but never renders it.
+        pipeline.offer(frame(0, true));
+        assertTrue(decoder.entered.await(2, TimeUnit.SECONDS));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (decoder.thread.getState() != Thread.State.WAITING &&
+                System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, decoder.thread.getState());
+    }
+
+    private FrameBuffer frame(int timestampMicros, boolean keyFrame) {
+        byte[] accessUnit = keyFrame ? concat(START, SPS, START, PPS, START, IDR) :
+                concat(START, SLICE);
+        byte[] header = ByteBuffer.allocate(FrameParser.HEADER_SIZE + FrameParser.LENGTH_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(FrameParser.MAGIC)
+                .put((byte)FrameParser.VERSION)
+                .put((byte)FrameParser.HEADER_SIZE)
+                .put((byte)1)
+                .put((byte)1)
+                .putShort((short)640)
+                .putShort((short)480)
+                .put((byte)FrameParser.ENCODING_H264)
+                .put((byte)0)
+                .putShort((short)0)
+                .putInt(timestampMicros)
+                .putLong(timestampMicros)
+                .putInt(accessUnit.length)
+                .array();
+        byte[] data = concat(header, accessUnit);
+
+        FrameBuffer buffer = pool.acquire(data.length);
+        System.arraycopy(data, 0, buffer.data, 0, data.length);
+        buffer.length = data.length;
+        return buffer;
+    }
+
+    // Stands in for MediaCodec, recording the presentation time of every accepted unit.
+    private static class FakeVideoDecoder extends VideoDecoder {
+        final List<Long> accepted = new ArrayList<>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        volatile Thread thread;
+
+        @Override
+        boolean queueAccessUnit(byte[] data, int offset, int length, int codecType, int width,
+                                int height, long presentationTimeUs, boolean keyFrame) {
+            thread = Thread.currentThread();
+            entered.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+
+            synchronized (accepted) {
+                accepted.add(presentationTimeUs);
+            }
+            done.countDown();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.derelictvesseldev.pi_client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+
+// Decrypting the stored password before a connect, the way CryptoUtils used to (new cipher per
+// call, CipherInputStream read a byte at a time into boxed Bytes) against the current way (one
+// cached cipher, a single doFinal). CryptoUtils itself needs the Android key store, so this uses
+// a software RSA key of the same size; on a device the key store lookup CryptoUtils now caches
+// comes on top.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CredentialDecryptBenchmark {
+    private static final String TRANSFORMATION = "RSA/ECB/PKCS1Padding";
+
+    private KeyPair keyPair;
+    private byte[] ciphertext;
+    private Cipher cachedCipher;
+
+    @Setup(Level.Trial)
+    public void setUp() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+
+        Cipher encrypt = Cipher.getInstance(TRANSFORMATION);
+        encrypt.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+        ciphertext = encrypt.doFinal("raspberry-pi-password".getBytes(StandardCharsets.UTF_8));
+
+        cachedCipher = Cipher.getInstance(TRANSFORMATION);
+        cachedCipher.init(Cipher.DECRYPT_MODE, keyPair.getPrivate());
+    }
+
+    @Benchmark
+    public String coldByteStream() throws GeneralSecurityException, IOException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, keyPair.getPrivate());
+
+        CipherInputStream cipherInputStream = new CipherInputStream(
+                new ByteArrayInputStream(ciphertext), cipher);
+        ArrayList<Byte> values = new ArrayList<>();
+        int nextByte;
+        while ((nextByte = cipherInputStream.read()) != -1) {
+            values.add((byte)nextByte);
+        }
+
+        byte[] bytes = new byte[values.size()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = values.get(i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String coldDoFinal() throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, keyPair.getPrivate());
+        return new String(cipher.doFinal(ciphertext), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String cachedDoFinal() throws GeneralSecurityException {
+        return new String(cachedCipher.doFinal(ciphertext), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,218 @@
+package com.derelictvesseldev.pi_client.pi_manager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Replays a MONITOR_PORT byte stream through FrameParser, framed either by FrameRing, as live
+// streams are, or by FrameDecoder, as replays are. Every invocation processes FRAMES_PER_STREAM
+// frames, so scores and gc.alloc.rate.norm are per frame.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FramingBenchmark {
+    private static final int TILE_COUNT = 4;
+    private static final int FRAMES_PER_STREAM = 32;
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+    // Synthetic tile size in bytes; ignored when replaying a recorded stream.
+    @Param({"16384", "65536", "262144"})
+    public int tileSize;
+
+    // Bytes handed to the decoder or ring per read: 1448 is a typical TCP MSS, 0 means random sizes
+    // between 1 byte and 4 * MSS.
+    @Param({"1448", "65536", "0"})
+    public int fragmentSize;
+
+    // Optional raw MONITOR_PORT capture (length-prefixed frames).
+    @Param({""})
+    public String streamFile;
+
+    private final FrameBufferPool pool = new FrameBufferPool(4);
+    private final FrameParser parser = new FrameParser(TILE_COUNT);
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private byte[] stream;
+    private int[] fragmentLengths;
+    private byte[] singleFrame;
+    private Blackhole blackhole;
+    private FrameDecoder decoder;
+    private FrameRing ring;
+    private FrameBuffer heldFrame;
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) throws IOException {
+        this.blackhole = blackhole;
+        stream = streamFile.isEmpty() ? syntheticStream() : recordedStream(streamFile);
+        fragmentLengths = fragmentLengths(stream.length);
+
+        int frameSize = FrameParser.fromByteArray(stream, 0);
+        singleFrame = new byte[frameSize];
+        System.arraycopy(stream, FrameDecoder.HEADER_SIZE, singleFrame, 0, frameSize);
+
+        decoder = new FrameDecoder(pool, frame -> {
+            blackhole.consume(parser.parse(frame.data, frame.length));
+            pool.release(frame);
+        });
+        // Three frames long, so receiving wraps around it every few frames.
+        ring = new FrameRing(3 * maxFrameLength(stream), frame -> {
+            blackhole.consume(parser.parse(frame));
+            // Frames go back in pairs, newest first, so space is reclaimed out of order as it
+            // is when the display stage drops a frame the decode stage still holds.
+            if (heldFrame == null) {
+                heldFrame = frame;
+                return;
+            }
+            ring.release(frame);
+            ring.release(heldFrame);
+            heldFrame = null;
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES_PER_STREAM)
+    public void decodeStream() throws IOException {
+        int offset = 0;
+        for (int length : fragmentLengths) {
+            readBuffer.clear();
+            readBuffer.put(stream, offset, length);
+            readBuffer.flip();
+            decoder.decode(readBuffer);
+            offset += length;
+        }
+    }
+
+    // As MonitorChannel does: each read fills at most what the ring offers.
+    @Benchmark
+    @OperationsPerInvocation(FRAMES_PER_STREAM)
+    public void receiveIntoRing() throws IOException, InterruptedException {
+        int offset = 0;
+        for (int length : fragmentLengths) {
+            int end = offset + length;
+            while (offset < end) {
+                ByteBuffer target = ring.writable();
+                if (target == null) {
+                    throw new IllegalStateException("Receive ring full");
+                }
+
+                int count = Math.min(target.remaining(), end - offset);
+                target.put(stream, offset, count);
+                offset += count;
+                ring.onReceived();
+            }
+        }
+    }
+
+    @Benchmark
+    public int parseTiles() {
+        return parser.parse(singleFrame, singleFrame.length);
+    }
+
+    private byte[] syntheticStream() {
+        int frameSize = TILE_COUNT * (FrameParser.LENGTH_SIZE + tileSize);
+        ByteBuffer buffer = ByteBuffer.allocate(FRAMES_PER_STREAM *
+                (FrameDecoder.HEADER_SIZE + frameSize)).order(ByteOrder.LITTLE_ENDIAN);
+        Random random = new Random(1);
+        byte[] tile = new byte[tileSize];
+
+        for (int frame = 0; frame < FRAMES_PER_STREAM; frame++) {
+            buffer.putInt(frameSize);
+            for (int i = 0; i < TILE_COUNT; i++) {
+                random.nextBytes(tile);
+                buffer.putInt(tileSize);
+                buffer.put(tile);
+            }
+        }
+
+        return buffer.array();
+    }
+
+    // Takes the first FRAMES_PER_STREAM whole frames from a capture, repeating it if shorter.
+    private static byte[] recordedStream(String path) throws IOException {
+        byte[] capture = Files.readAllBytes(Paths.get(path));
+        int[] frameEnds = new int[FRAMES_PER_STREAM];
+        int frames = 0;
+        int offset = 0;
+
+        while (frames < FRAMES_PER_STREAM && capture.length - offset >= FrameDecoder.HEADER_SIZE) {
+            int frameSize = FrameParser.fromByteArray(capture, offset);
+            int end = offset + FrameDecoder.HEADER_SIZE + frameSize;
+            if (frameSize < 0 || end > capture.length) {
+                break;
+            }
+
+            frameEnds[frames++] = end;
+            offset = end;
+        }
+
+        if (frames == 0) {
+            throw new IOException("No complete frames in " + path);
+        }
+
+        int wholeLength = frameEnds[frames - 1];
+        int repeats = (FRAMES_PER_STREAM + frames - 1) / frames;
+        ByteBuffer buffer = ByteBuffer.allocate(wholeLength * repeats);
+        for (int i = 0; i < repeats; i++) {
+            buffer.put(capture, 0, wholeLength);
+        }
+
+        // Trim to exactly FRAMES_PER_STREAM frames so per-frame normalisation holds.
+        int extra = repeats * frames - FRAMES_PER_STREAM;
+        int length = wholeLength * repeats -
+                (extra > 0 ? wholeLength - frameEnds[frames - extra - 1] : 0);
+        byte[] result = new byte[length];
+        System.arraycopy(buffer.array(), 0, result, 0, length);
+        return result;
+    }
+
+    private static int maxFrameLength(byte[] stream) {
+        int max = 0;
+        for (int offset = 0; offset < stream.length; ) {
+            int length = FrameDecoder.HEADER_SIZE + FrameParser.fromByteArray(stream, offset);
+            max = Math.max(max, length);
+            offset += length;
+        }
+        return max;
+    }
+
+    private int[] fragmentLengths(int streamLength) {
+        int maxFragment = Math.min(READ_BUFFER_SIZE, fragmentSize > 0 ? fragmentSize : 4 * 1448);
+        Random random = new Random(2);
+        int count = 0;
+        int[] lengths = new int[64];
+
+        for (int offset = 0; offset < streamLength; ) {
+            int length = fragmentSize > 0 ? maxFragment : 1 + random.nextInt(maxFragment);
+            length = Math.min(length, streamLength - offset);
+            if (count == lengths.length) {
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            lengths[count++] = length;
+            offset += length;
+        }
+
+        return Arrays.copyOf(lengths, count);
+    }
+}